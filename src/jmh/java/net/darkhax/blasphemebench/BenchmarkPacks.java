@@ -0,0 +1,92 @@
+package net.darkhax.blasphemebench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.darkhax.blaspheme.Blaspheme;
+import net.darkhax.blaspheme.Manifest;
+
+// Builds synthetic packs for the benchmarks, both as a pack zip and as an extracted directory.
+public final class BenchmarkPacks {
+    
+    private BenchmarkPacks() {
+        
+    }
+    
+    public static Manifest createManifest (int mods) {
+        
+        final Manifest manifest = new Manifest();
+        manifest.manifestType = "minecraftModpack";
+        manifest.manifestVersion = "1";
+        manifest.name = "Benchmark Pack";
+        manifest.version = "1.0.0";
+        manifest.author = "Blaspheme";
+        manifest.overrides = "overrides";
+        manifest.files = new ArrayList<>();
+        
+        for (int mod = 0; mod < mods; mod++) {
+            
+            final Manifest.FileData file = new Manifest.FileData();
+            file.projectID = 10000 + mod;
+            file.fileID = 2000000 + mod;
+            file.required = true;
+            manifest.files.add(file);
+        }
+        
+        return manifest;
+    }
+    
+    public static void writeZip (File zip, Manifest manifest, int overrides, int overrideSize) throws IOException {
+        
+        final byte[] data = new byte[overrideSize];
+        new Random(0).nextBytes(data);
+        
+        try (ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(zip))) {
+            
+            stream.putNextEntry(new ZipEntry("manifest.json"));
+            stream.write(Blaspheme.GSON.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+            stream.closeEntry();
+            
+            for (int override = 0; override < overrides; override++) {
+                
+                stream.putNextEntry(new ZipEntry(manifest.overrides + "/config/dir" + override % 16 + "/file" + override + ".cfg"));
+                stream.write(data);
+                stream.closeEntry();
+            }
+        }
+    }
+    
+    public static void writeDirectory (File dir, Manifest manifest, int overrides, int overrideSize) throws IOException {
+        
+        final byte[] data = new byte[overrideSize];
+        new Random(0).nextBytes(data);
+        
+        dir.mkdirs();
+        Files.write(new File(dir, "manifest.json").toPath(), Blaspheme.GSON.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+        
+        for (int override = 0; override < overrides; override++) {
+            
+            final File file = new File(dir, manifest.overrides + "/config/dir" + override % 16 + "/file" + override + ".cfg");
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), data);
+        }
+    }
+    
+    public static void delete (File file) {
+        
+        final File[] children = file.listFiles();
+        
+        if (children != null)
+            for (final File child : children)
+                delete(child);
+                
+        file.delete();
+    }
+}
\ No newline at end of file
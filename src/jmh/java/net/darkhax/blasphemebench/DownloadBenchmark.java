@@ -0,0 +1,62 @@
+package net.darkhax.blasphemebench;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.darkhax.blaspheme.Blaspheme;
+
+// Measures downloading a single jar from the fake server, including the hash taken while it
+// streams in.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DownloadBenchmark {
+    
+    @Param({ "65536", "4194304", "67108864" })
+    public int size;
+    
+    @Param({ "0" })
+    public long latency;
+    
+    private FakeCurseServer server;
+    private URL url;
+    private File target;
+    
+    @Setup
+    public void setup () throws Exception {
+        
+        this.server = new FakeCurseServer(this.size, this.latency);
+        this.url = new URL("http://127.0.0.1:" + this.server.getPort() + "/cdn/1/benchmark.jar");
+        this.target = File.createTempFile("blaspheme", ".jar");
+    }
+    
+    @TearDown
+    public void tearDown () {
+        
+        this.server.close();
+        this.target.delete();
+    }
+    
+    @Benchmark
+    public String downloadFileFromURL () throws Exception {
+        
+        return Blaspheme.downloadFileFromURL(this.target, this.url);
+    }
+}
\ No newline at end of file
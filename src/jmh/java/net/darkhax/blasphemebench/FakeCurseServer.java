@@ -0,0 +1,144 @@
+package net.darkhax.blasphemebench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.darkhax.blaspheme.Blaspheme;
+import net.darkhax.blaspheme.HttpTransport;
+import net.darkhax.blaspheme.UrlConnectionTransport;
+
+// A local stand-in for curse, so benchmarks never touch the live site. It mimics the
+// redirect chain Blaspheme follows: /projects/<id> redirects to /projects/<slug>, and
+// /projects/<slug>/files/<fileID>/download redirects to a jar on /cdn/. Jars are synthetic,
+// with a configurable size, and every request waits a configurable latency before replying.
+public class FakeCurseServer implements AutoCloseable {
+    
+    private static final String CURSE_HOST = "minecraft.curseforge.com";
+    private static final Pattern PROJECT_ID = Pattern.compile("/projects/(\\d+)");
+    private static final Pattern FILE_DOWNLOAD = Pattern.compile("/projects/([^/]+)/files/(\\d+)/download");
+    
+    private final HttpServer server;
+    private final byte[] jar;
+    private final long latency;
+    private HttpTransport previousTransport;
+    
+    public FakeCurseServer(int jarSize, long latencyMillis) throws IOException {
+        
+        this.jar = new byte[jarSize];
+        new Random(0).nextBytes(this.jar);
+        this.latency = latencyMillis;
+        
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.createContext("/projects/", this::handleProject);
+        this.server.createContext("/cdn/", this::handleFile);
+        this.server.start();
+    }
+    
+    public int getPort () {
+        
+        return this.server.getAddress().getPort();
+    }
+    
+    // Routes every request for the curse host to this server, using the transport hook.
+    public void install () {
+        
+        this.previousTransport = Blaspheme.getHttpTransport();
+        Blaspheme.setHttpTransport(new Transport(this.previousTransport, this.getPort()));
+    }
+    
+    @Override
+    public void close () {
+        
+        if (this.previousTransport != null)
+            Blaspheme.setHttpTransport(this.previousTransport);
+            
+        this.server.stop(0);
+    }
+    
+    private void handleProject (HttpExchange exchange) throws IOException {
+        
+        this.delay();
+        final String path = exchange.getRequestURI().getPath();
+        final Matcher project = PROJECT_ID.matcher(path);
+        final Matcher download = FILE_DOWNLOAD.matcher(path);
+        
+        if (project.matches())
+            redirect(exchange, "/projects/mod-" + project.group(1));
+            
+        else if (download.matches())
+            redirect(exchange, "http://127.0.0.1:" + this.getPort() + "/cdn/" + download.group(2) + "/" + download.group(1) + "-" + download.group(2) + ".jar");
+            
+        else
+            reply(exchange, 404, null);
+    }
+    
+    private void handleFile (HttpExchange exchange) throws IOException {
+        
+        this.delay();
+        reply(exchange, 200, this.jar);
+    }
+    
+    private void delay () {
+        
+        if (this.latency <= 0)
+            return;
+            
+        try {
+            
+            Thread.sleep(this.latency);
+        }
+        
+        catch (final InterruptedException e) {
+            
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void redirect (HttpExchange exchange, String location) throws IOException {
+        
+        exchange.getResponseHeaders().set("Location", location);
+        reply(exchange, 302, null);
+    }
+    
+    private static void reply (HttpExchange exchange, int status, byte[] body) throws IOException {
+        
+        final boolean head = "HEAD".equals(exchange.getRequestMethod());
+        exchange.sendResponseHeaders(status, body == null || head ? -1 : body.length);
+        
+        try (OutputStream stream = exchange.getResponseBody()) {
+            
+            if (body != null && !head)
+                stream.write(body);
+        }
+    }
+    
+    private static class Transport implements HttpTransport {
+        
+        private final HttpTransport delegate;
+        private final int port;
+        
+        public Transport(HttpTransport delegate, int port) {
+            
+            this.delegate = delegate instanceof Transport ? ((Transport) delegate).delegate : delegate != null ? delegate : new UrlConnectionTransport();
+            this.port = port;
+        }
+        
+        @Override
+        public Response send (String method, URL url, Map<String, String> headers) throws IOException {
+            
+            final URL target = CURSE_HOST.equals(url.getHost()) ? new URL("http", "127.0.0.1", this.port, url.getFile()) : url;
+            return this.delegate.send(method, target, headers);
+        }
+    }
+}
\ No newline at end of file
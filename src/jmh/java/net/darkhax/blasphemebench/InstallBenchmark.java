@@ -0,0 +1,80 @@
+package net.darkhax.blasphemebench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.darkhax.blaspheme.Blaspheme;
+import net.darkhax.blaspheme.Manifest;
+
+// Measures a full manifest install against the fake server, from resolving every mod to
+// writing the lock file. The redirect cache and mod store are turned off, so every run does
+// the full amount of work.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InstallBenchmark {
+    
+    @Param({ "100" })
+    public int mods;
+    
+    @Param({ "262144" })
+    public int jarSize;
+    
+    @Param({ "0", "20" })
+    public long latency;
+    
+    private FakeCurseServer server;
+    private File workDir;
+    private File outputDir;
+    private Manifest manifest;
+    
+    @Setup
+    public void setup () throws Exception {
+        
+        this.server = new FakeCurseServer(this.jarSize, this.latency);
+        this.server.install();
+        Blaspheme.setRedirectCache(null);
+        Blaspheme.setModStore(null);
+        this.workDir = Files.createTempDirectory("blaspheme-bench").toFile();
+        this.manifest = BenchmarkPacks.createManifest(this.mods);
+    }
+    
+    @Setup(Level.Invocation)
+    public void clearOutput () {
+        
+        this.outputDir = new File(this.workDir, "minecraft");
+        BenchmarkPacks.delete(this.outputDir);
+        this.outputDir.mkdirs();
+    }
+    
+    @TearDown
+    public void tearDown () {
+        
+        this.server.close();
+        BenchmarkPacks.delete(this.workDir);
+    }
+    
+    @Benchmark
+    public File downloadModpackFromManifest () throws Exception {
+        
+        return Blaspheme.downloadModpackFromManifest(this.outputDir, this.manifest);
+    }
+}
\ No newline at end of file
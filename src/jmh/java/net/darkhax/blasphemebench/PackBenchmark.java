@@ -0,0 +1,104 @@
+package net.darkhax.blasphemebench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.darkhax.blaspheme.Blaspheme;
+import net.darkhax.blaspheme.Manifest;
+import net.darkhax.blaspheme.PackArchive;
+
+// Measures reading the manifest and setting up the overrides of a pack, both from an
+// extracted pack directory and straight from the pack zip.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class PackBenchmark {
+    
+    @Param({ "200" })
+    public int mods;
+    
+    @Param({ "100", "2000" })
+    public int overrides;
+    
+    @Param({ "4096" })
+    public int overrideSize;
+    
+    private File workDir;
+    private File packDir;
+    private File packZip;
+    private File outputDir;
+    private Manifest manifest;
+    
+    @Setup
+    public void setup () throws Exception {
+        
+        this.workDir = Files.createTempDirectory("blaspheme-bench").toFile();
+        this.packDir = new File(this.workDir, "pack");
+        this.packZip = new File(this.workDir, "pack.zip");
+        this.manifest = BenchmarkPacks.createManifest(this.mods);
+        BenchmarkPacks.writeDirectory(this.packDir, this.manifest, this.overrides, this.overrideSize);
+        BenchmarkPacks.writeZip(this.packZip, this.manifest, this.overrides, this.overrideSize);
+    }
+    
+    @Setup(Level.Invocation)
+    public void clearOutput () {
+        
+        this.outputDir = new File(this.workDir, "output");
+        BenchmarkPacks.delete(this.outputDir);
+        this.outputDir.mkdirs();
+    }
+    
+    @TearDown
+    public void tearDown () {
+        
+        BenchmarkPacks.delete(this.workDir);
+    }
+    
+    @Benchmark
+    public Manifest readManifest () throws Exception {
+        
+        return Blaspheme.readManifest(this.packDir);
+    }
+    
+    @Benchmark
+    public Manifest readManifestFromZip () throws Exception {
+        
+        try (PackArchive archive = new PackArchive(this.packZip)) {
+            
+            return archive.readManifest();
+        }
+    }
+    
+    @Benchmark
+    public void copyOverrides () throws Exception {
+        
+        Blaspheme.copyOverrides(this.manifest, this.packDir, this.outputDir);
+    }
+    
+    @Benchmark
+    public void extractOverrides () throws Exception {
+        
+        try (PackArchive archive = new PackArchive(this.packZip)) {
+            
+            archive.extractOverrides(this.manifest, this.outputDir, false);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,62 @@
+package net.darkhax.blasphemebench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.darkhax.blaspheme.Blaspheme;
+import net.darkhax.blaspheme.Manifest;
+
+// Measures resolving mod locations through the fake redirect chain.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RedirectBenchmark {
+    
+    @Param({ "0", "5" })
+    public long latency;
+    
+    private FakeCurseServer server;
+    private Manifest.FileData file;
+    
+    @Setup
+    public void setup () throws Exception {
+        
+        this.server = new FakeCurseServer(1024, this.latency);
+        this.server.install();
+        Blaspheme.setRedirectCache(null);
+        this.file = BenchmarkPacks.createManifest(1).files.get(0);
+    }
+    
+    @TearDown
+    public void tearDown () {
+        
+        this.server.close();
+    }
+    
+    @Benchmark
+    public String getLocationHeader () throws Exception {
+        
+        return Blaspheme.getLocationHeader(Blaspheme.PROJECT_URL + this.file.projectID);
+    }
+    
+    @Benchmark
+    public String resolveModFile () throws Exception {
+        
+        return Blaspheme.resolveModFile(this.file).getLocation();
+    }
+}
\ No newline at end of file
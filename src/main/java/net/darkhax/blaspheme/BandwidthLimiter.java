@@ -0,0 +1,280 @@
+package net.darkhax.blaspheme;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.WeakHashMap;
+
+/**
+ * A token bucket which limits how many bytes per second pass through it. One limiter is shared
+ * by every install in the process, so the limit holds no matter how many downloads are
+ * running. The rate can be changed at any time, and takes effect for requests which are
+ * already waiting.
+ * 
+ * When several installs are waiting for bytes, they are served in proportion to the weight of
+ * their {@link Share}. A share with twice the weight gets about twice the bytes, no matter how
+ * many threads it downloads with. Bytes are taken in the chunks they are written in, so a
+ * single chunk may briefly exceed the budget, and the following ones wait it out.
+ */
+public class BandwidthLimiter {
+    
+    /**
+     * The amount of bytes allowed per second, or 0 if there is no limit. Guarded by this
+     * limiter.
+     */
+    private long rate;
+    
+    /**
+     * The amount of bytes which can be taken right away. Negative when a chunk larger than
+     * the available bytes was taken. Guarded by this limiter.
+     */
+    private double tokens;
+    
+    /**
+     * The time the tokens were last refilled, in nanoseconds. Guarded by this limiter.
+     */
+    private long refillTime = System.nanoTime();
+    
+    /**
+     * The finish tag of the last request which was served. Guarded by this limiter.
+     */
+    private double virtualTime;
+    
+    /**
+     * The finish tag of the last request from each share. Guarded by this limiter.
+     */
+    private final Map<Share, Double> finishTags = new WeakHashMap<>();
+    
+    /**
+     * The requests waiting for bytes, with the lowest finish tag first. Guarded by this
+     * limiter.
+     */
+    private final PriorityQueue<Request> waiting = new PriorityQueue<>();
+    
+    /**
+     * The amount of requests made, used to keep requests with equal tags in order. Guarded by
+     * this limiter.
+     */
+    private long requests;
+    
+    /**
+     * Creates a limiter with no limit.
+     */
+    public BandwidthLimiter() {
+        
+        this(0);
+    }
+    
+    /**
+     * Creates a limiter.
+     * 
+     * @param bytesPerSecond The amount of bytes allowed per second, or 0 for no limit.
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        
+        this.setRate(bytesPerSecond);
+    }
+    
+    /**
+     * Gets the amount of bytes allowed per second.
+     * 
+     * @return The rate of the limiter, or 0 if there is no limit.
+     */
+    public synchronized long getRate () {
+        
+        return this.rate;
+    }
+    
+    /**
+     * Sets the amount of bytes allowed per second. Waiting requests are served at the new
+     * rate right away.
+     * 
+     * @param bytesPerSecond The amount of bytes allowed per second, or 0 for no limit.
+     */
+    public synchronized void setRate (long bytesPerSecond) {
+        
+        if (bytesPerSecond < 0)
+            throw new IllegalArgumentException("The rate can not be negative");
+        
+        this.refill();
+        this.rate = bytesPerSecond;
+        this.tokens = Math.min(this.tokens, bytesPerSecond);
+        this.notifyAll();
+    }
+    
+    /**
+     * Waits until an amount of bytes may be used. Returns right away if there is no limit.
+     * 
+     * @param share The share the bytes are taken from.
+     * @param bytes The amount of bytes to take.
+     * @throws InterruptedIOException If the thread is interrupted while waiting.
+     */
+    public synchronized void acquire (Share share, long bytes) throws InterruptedIOException {
+        
+        if (this.rate <= 0)
+            return;
+        
+        final Double lastTag = this.finishTags.get(share);
+        final double tag = Math.max(this.virtualTime, lastTag != null ? lastTag : 0) + bytes / share.getWeight();
+        final Request request = new Request(tag, this.requests++);
+        
+        this.finishTags.put(share, tag);
+        this.waiting.add(request);
+        
+        try {
+            
+            while (this.rate > 0) {
+                
+                this.refill();
+                
+                if (this.waiting.peek() != request)
+                    this.wait();
+                
+                else if (this.tokens > 0) {
+                    
+                    this.tokens -= bytes;
+                    this.virtualTime = tag;
+                    return;
+                }
+                
+                else
+                    this.wait(Math.max(1, (long) Math.ceil(-this.tokens * 1000 / this.rate)));
+            }
+        }
+        
+        catch (final InterruptedException e) {
+            
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+        
+        finally {
+            
+            this.waiting.remove(request);
+            this.notifyAll();
+        }
+    }
+    
+    /**
+     * Adds the tokens earned since the last refill. At most one second of tokens are kept.
+     */
+    private void refill () {
+        
+        final long now = System.nanoTime();
+        
+        if (this.rate > 0)
+            this.tokens = Math.min(this.rate, this.tokens + (now - this.refillTime) * this.rate / 1e9);
+        
+        this.refillTime = now;
+    }
+    
+    /**
+     * A request waiting for bytes.
+     */
+    private static class Request implements Comparable<Request> {
+        
+        /**
+         * The virtual time the request finishes at. Requests with a lower tag are served
+         * first.
+         */
+        private final double tag;
+        
+        /**
+         * The order the request was made in.
+         */
+        private final long order;
+        
+        public Request(double tag, long order) {
+            
+            this.tag = tag;
+            this.order = order;
+        }
+        
+        @Override
+        public int compareTo (Request other) {
+            
+            final int compare = Double.compare(this.tag, other.tag);
+            return compare != 0 ? compare : Long.compare(this.order, other.order);
+        }
+    }
+    
+    /**
+     * The portion of the limited bytes used by an install. Installs use the share of the
+     * thread which started them, which is {@link #DEFAULT} unless another one has been set.
+     */
+    public static class Share {
+        
+        /**
+         * The share used by installs which have not been given one.
+         */
+        public static final Share DEFAULT = new Share(1);
+        
+        /**
+         * The share of each thread.
+         */
+        private static final ThreadLocal<Share> CURRENT = ThreadLocal.withInitial( () -> DEFAULT);
+        
+        /**
+         * The weight of the share, relative to the other shares.
+         */
+        private volatile double weight;
+        
+        /**
+         * Creates a share.
+         * 
+         * @param weight The weight of the share. A share with twice the weight gets twice as
+         *        many bytes when both are waiting.
+         */
+        public Share(double weight) {
+            
+            this.setWeight(weight);
+        }
+        
+        /**
+         * Gets the weight of the share.
+         * 
+         * @return The weight of the share.
+         */
+        public double getWeight () {
+            
+            return this.weight;
+        }
+        
+        /**
+         * Sets the weight of the share. This can be changed while the install is running.
+         * 
+         * @param weight The weight of the share.
+         */
+        public void setWeight (double weight) {
+            
+            if (!(weight > 0))
+                throw new IllegalArgumentException("The weight must be greater than 0");
+            
+            this.weight = weight;
+        }
+        
+        /**
+         * Gets the share used by installs started on the current thread.
+         * 
+         * @return The share of the current thread.
+         */
+        public static Share current () {
+            
+            return CURRENT.get();
+        }
+        
+        /**
+         * Sets the share used by installs started on the current thread.
+         * 
+         * @param share The share to use. Null will use the default share.
+         */
+        public static void setCurrent (Share share) {
+            
+            if (share == null)
+                CURRENT.remove();
+            
+            else
+                CURRENT.set(share);
+        }
+    }
+}
\ No newline at end of file
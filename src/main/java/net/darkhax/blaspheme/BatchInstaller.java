@@ -0,0 +1,345 @@
+package net.darkhax.blaspheme;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+
+/**
+ * Installs several packs at once. The mod files of every pack are merged into one work set,
+ * so a mod used by many packs is resolved and downloaded only once, and is then linked into
+ * each instance that needs it.
+ */
+public class BatchInstaller {
+    
+    /**
+     * The packs to install.
+     */
+    private final List<Target> targets = new ArrayList<>();
+    
+    /**
+     * The engine used to download the merged work set.
+     */
+    private final DownloadEngine engine;
+    
+    /**
+     * Creates a batch installer with a default download engine.
+     */
+    public BatchInstaller() {
+        
+        this(null);
+    }
+    
+    /**
+     * Creates a batch installer.
+     * 
+     * @param engine The engine to download with. Null will use a default engine for each
+     *        install.
+     */
+    public BatchInstaller(DownloadEngine engine) {
+        
+        this.engine = engine;
+    }
+    
+    /**
+     * Adds a pack from a curse URL. The latest file of the pack will be installed.
+     * 
+     * @param url The URL of the modpack. Must point to curse, or a similar location.
+     * @param outputDir The directory to install the pack to. Null will use the default output
+     *        directory for the pack.
+     */
+    public void addPack (String url, File outputDir) {
+        
+        final Target target = new Target(outputDir);
+        target.url = url;
+        this.targets.add(target);
+    }
+    
+    /**
+     * Adds a pack from a local pack zip.
+     * 
+     * @param archive The pack zip file.
+     * @param outputDir The directory to install the pack to.
+     */
+    public void addArchive (File archive, File outputDir) {
+        
+        final Target target = new Target(outputDir);
+        target.archiveFile = archive;
+        this.targets.add(target);
+    }
+    
+    /**
+     * Adds a pack from a manifest. Only the mods of the pack are installed, as a manifest has
+     * no overrides.
+     * 
+     * @param manifest The manifest of the pack.
+     * @param outputDir The directory to install the pack to.
+     */
+    public void addManifest (Manifest manifest, File outputDir) {
+        
+        final Target target = new Target(outputDir);
+        target.manifest = manifest;
+        this.targets.add(target);
+    }
+    
+    /**
+     * Installs all of the added packs in the background. Cancelling the returned future stops
+     * the install, and deletes any partially downloaded files.
+     * 
+     * @param setupMultiMC Should MultiMC instances also be created?
+     * @param executor The executor to run the install on.
+     * @return The future for the install, which completes with the download report.
+     */
+    public InstallFuture<DownloadReport> installAsync (boolean setupMultiMC, Executor executor) {
+        
+        return InstallFuture.start( () -> this.install(setupMultiMC), executor);
+    }
+    
+    /**
+     * Installs all of the added packs. Every unique mod file is downloaded once into its own
+     * directory within a shared staging directory, and then linked or copied into every
+     * instance that uses it.
+     * 
+     * @param setupMultiMC Should MultiMC instances also be created?
+     * @return A report of the downloads for the merged work set.
+     */
+    public DownloadReport install (boolean setupMultiMC) throws Exception {
+        
+        final File stagingDir = new File(Blaspheme.getTempDir("blaspheme_temp"), "batch-" + System.currentTimeMillis());
+        final InstallMetrics previousMetrics = InstallMetrics.current();
+        final InstallMetrics metrics = Blaspheme.startMetrics();
+        final long installStart = System.nanoTime();
+        
+        try {
+            
+            final Map<Long, Manifest.FileData> workSet = new LinkedHashMap<>();
+            int total = 0;
+            long phaseStart = System.nanoTime();
+            
+            for (final Target target : this.targets) {
+                
+                this.prepare(target);
+                total += target.manifest.files.size();
+                
+                for (final Manifest.FileData file : target.manifest.files)
+                    workSet.putIfAbsent(file.getKey(), file);
+            }
+            
+            Blaspheme.LOGGER.log(Level.INFO, this.targets.size() + " packs contain " + total + " files, " + workSet.size() + " of which are unique");
+            
+            metrics.recordTime(InstallMetrics.PHASE_ARCHIVE, phaseStart);
+            
+            // Different mods can use the same file name, so each file is staged on its own.
+            for (final Manifest.FileData file : workSet.values())
+                getStagingDir(stagingDir, file).mkdirs();
+                
+            phaseStart = System.nanoTime();
+            final DownloadReport report = this.download(new ArrayList<>(workSet.values()), stagingDir);
+            metrics.recordTime(InstallMetrics.PHASE_MODS, phaseStart);
+            final Map<Long, DownloadResult> results = new LinkedHashMap<>();
+            
+            for (final DownloadResult result : report.getResults())
+                if (result != null)
+                    results.put(result.getFile().getKey(), result);
+                    
+            
+            for (final Target target : this.targets)
+                this.installTarget(target, results, stagingDir, setupMultiMC);
+                
+            final File[] outputDirs = new File[this.targets.size()];
+            
+            for (int index = 0; index < outputDirs.length; index++)
+                outputDirs[index] = this.targets.get(index).outputDir;
+                
+            Blaspheme.exportMetrics(metrics, installStart, outputDirs);
+            Blaspheme.LOGGER.log(Level.INFO, "Batch install complete. " + report);
+            report.throwIfFailed();
+            return report;
+        }
+        
+        finally {
+            
+            InstallMetrics.setCurrent(previousMetrics);
+            
+            for (final Target target : this.targets)
+                target.cleanUp();
+                
+            Blaspheme.deleteRecursively(stagingDir);
+        }
+    }
+    
+    /**
+     * Downloads the merged work set, using the configured engine or a default one.
+     * 
+     * @param files The unique files to download.
+     * @param stagingDir The directory to download the files to.
+     * @return The report for the downloads.
+     */
+    private DownloadReport download (List<Manifest.FileData> files, File stagingDir) throws InterruptedException {
+        
+        if (this.engine != null)
+            return this.engine.downloadAll(files, file -> getStagingDir(stagingDir, file));
+            
+        try (DownloadEngine defaultEngine = new DownloadEngine()) {
+            
+            return defaultEngine.downloadAll(files, file -> getStagingDir(stagingDir, file));
+        }
+    }
+    
+    /**
+     * Gets the directory a single file of the work set is downloaded to.
+     * 
+     * @param stagingDir The staging directory of the batch.
+     * @param file The manifest entry.
+     * @return The directory for the entry.
+     */
+    private static File getStagingDir (File stagingDir, Manifest.FileData file) {
+        
+        return new File(stagingDir, file.projectID + "-" + file.fileID);
+    }
+    
+    /**
+     * Downloads the pack zip and reads the manifest for a pack, as needed.
+     * 
+     * @param target The pack to prepare.
+     */
+    private void prepare (Target target) throws Exception {
+        
+        if (target.url != null) {
+            
+            final PackDownload pack = Blaspheme.fetchPack(target.url);
+            
+            target.archiveFile = pack.getFile();
+            target.deleteArchive = pack.isTemporary();
+            
+            if (target.outputDir == null)
+                target.outputDir = Blaspheme.getOutputDir(pack.getName());
+        }
+        
+        if (target.archiveFile != null) {
+            
+            target.archive = new PackArchive(target.archiveFile);
+            target.manifest = target.archive.readManifest();
+        }
+    }
+    
+    /**
+     * Installs the downloaded files into a single instance, and sets up its overrides and
+     * lock file.
+     * 
+     * @param target The pack to install.
+     * @param results The download results of the work set, by file.
+     * @param stagingDir The directory the work set was downloaded to.
+     * @param setupMultiMC Should a MultiMC instance also be created?
+     */
+    private void installTarget (Target target, Map<Long, DownloadResult> results, File stagingDir, boolean setupMultiMC) throws IOException {
+        
+        final File minecraftDir = new File(target.outputDir, "minecraft");
+        final File modsDir = new File(minecraftDir, "mods");
+        final InstallLock lock = new InstallLock(target.manifest);
+        
+        modsDir.mkdirs();
+        
+        for (final Manifest.FileData file : target.manifest.files) {
+            
+            final DownloadResult result = results.get(file.getKey());
+            
+            if (result == null || !result.isInstalled())
+                continue;
+                
+            final File modFile = Blaspheme.getModFile(modsDir, result.getFileName());
+            
+            // A file left by an earlier install is only kept if it matches the download.
+            if (modFile.exists() && result.getHash() != null && !result.getHash().equals(Hashes.hashFile(modFile))) {
+                
+                Blaspheme.LOGGER.log(Level.INFO, "Replacing " + modFile.getName() + ", it does not match the downloaded file");
+                Files.delete(modFile.toPath());
+            }
+            
+            if (!modFile.exists())
+                ModStore.linkOrCopy(Blaspheme.getModFile(getStagingDir(stagingDir, file), result.getFileName()), modFile);
+                
+            lock.add(new InstallLock.LockedFile(file.projectID, file.fileID, result.getFileName(), result.getHash(), modFile.length()));
+        }
+        
+        lock.write(minecraftDir);
+        
+        if (target.archive != null) {
+            
+            final long phaseStart = System.nanoTime();
+            Blaspheme.writeOverrideHashes(minecraftDir, target.archive.extractOverrides(target.manifest, minecraftDir, false));
+            Blaspheme.getMetrics().recordTime(InstallMetrics.PHASE_OVERRIDES, phaseStart);
+        }
+            
+        if (setupMultiMC)
+            Blaspheme.setupMultimcInfo(target.manifest, target.outputDir);
+            
+        Blaspheme.LOGGER.log(Level.INFO, "Installed " + target.manifest.name + " to " + target.outputDir);
+    }
+    
+    /**
+     * A single pack within the batch.
+     */
+    private static class Target {
+        
+        /**
+         * The directory to install the pack to.
+         */
+        private File outputDir;
+        
+        /**
+         * The curse URL of the pack, if it was added by URL.
+         */
+        private String url;
+        
+        /**
+         * The pack zip file, if there is one.
+         */
+        private File archiveFile;
+        
+        /**
+         * Whether or not the pack zip was downloaded by the batch, and should be deleted.
+         */
+        private boolean deleteArchive;
+        
+        /**
+         * The opened pack zip, if there is one.
+         */
+        private PackArchive archive;
+        
+        /**
+         * The manifest of the pack.
+         */
+        private Manifest manifest;
+        
+        public Target(File outputDir) {
+            
+            this.outputDir = outputDir;
+        }
+        
+        /**
+         * Closes and deletes any pack zip opened for this pack.
+         */
+        private void cleanUp () {
+            
+            try {
+                
+                if (this.archive != null)
+                    this.archive.close();
+            }
+            
+            catch (final IOException e) {
+                
+                Blaspheme.LOGGER.log(Level.WARNING, "Could not close pack archive " + this.archiveFile, e);
+            }
+            
+            if (this.deleteArchive)
+                this.archiveFile.delete();
+        }
+    }
+}
\ No newline at end of file
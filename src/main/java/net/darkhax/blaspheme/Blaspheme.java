@@ -2,22 +2,40 @@ package net.darkhax.blaspheme;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import com.google.gson.Gson;
 
@@ -50,6 +68,122 @@ public final class Blaspheme {
      */
     public static final Logger LOGGER = Logger.getLogger("Blaspheme");
     
+    /**
+     * The base URL for curse projects. Appending a project ID to this will redirect to the
+     * project page.
+     */
+    public static final String PROJECT_URL = "http://minecraft.curseforge.com/projects/";
+    
+    /**
+     * The cache used to skip redirect lookups for known projects and files. Created lazily,
+     * and null when caching has been disabled.
+     */
+    private static RedirectCache redirectCache;
+    
+    /**
+     * Whether or not the redirect cache has been set up.
+     */
+    private static boolean redirectCacheSet = false;
+    
+    /**
+     * The cache used to skip downloading pack zips which have not changed. Created lazily,
+     * and null when caching has been disabled.
+     */
+    private static PackCache packCache;
+    
+    /**
+     * Whether or not the pack cache has been set up.
+     */
+    private static boolean packCacheSet = false;
+    
+    /**
+     * The machine wide store that mod files are shared from. Created lazily, and null when the
+     * store has been disabled.
+     */
+    private static ModStore modStore;
+    
+    /**
+     * Whether or not the mod store has been set up.
+     */
+    private static boolean modStoreSet = false;
+    
+    /**
+     * The amount of times a download is attempted before giving up. Every attempt after the
+     * first resumes from the bytes that have already been downloaded.
+     */
+    private static final int DOWNLOAD_ATTEMPTS = 3;
+    
+    /**
+     * Options for opening a new partial download.
+     */
+    private static final OpenOption[] PART_CREATE = { StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING };
+    
+    /**
+     * Options for resuming an existing partial download.
+     */
+    private static final OpenOption[] PART_APPEND = { StandardOpenOption.CREATE, StandardOpenOption.WRITE };
+    
+    /**
+     * The amount of connections used for segmented downloads.
+     */
+    private static volatile int downloadSegments = 4;
+    
+    /**
+     * The minimum size in bytes for a file to be downloaded in segments.
+     */
+    private static volatile long segmentThreshold = 32L * 1024 * 1024;
+    
+    /**
+     * The maximum amount of redirects followed when resolving a location.
+     */
+    private static final int MAX_REDIRECTS = 20;
+    
+    /**
+     * The transport used for all network requests.
+     */
+    private static volatile HttpTransport httpTransport = new UrlConnectionTransport();
+    
+    /**
+     * Limits the bytes per second downloaded by every install.
+     */
+    private static final BandwidthLimiter networkLimiter = new BandwidthLimiter();
+    
+    /**
+     * Limits the bytes per second written to disk by every install.
+     */
+    private static final BandwidthLimiter diskLimiter = new BandwidthLimiter();
+    
+    /**
+     * Listeners which receive events from every download engine.
+     */
+    private static final List<DownloadListener> downloadListeners = new CopyOnWriteArrayList<>();
+    
+    /**
+     * The policy for retrying rate limited requests.
+     */
+    private static volatile RetryPolicy retryPolicy = new RetryPolicy();
+    
+    /**
+     * The source used to resolve mod files.
+     */
+    private static volatile ModSource modSource = new RedirectModSource();
+    
+    /**
+     * How optional files are handled by default.
+     */
+    private static volatile DownloadEngine.OptionalFiles optionalFiles = DownloadEngine.OptionalFiles.INCLUDE;
+    
+    /**
+     * The mirror checked before the network, or null if there is none.
+     */
+    private static volatile PackMirror mirror;
+    
+    /**
+     * The metrics recorded outside of an install. Installs only record metrics if these are
+     * enabled.
+     */
+    private static volatile InstallMetrics metrics = new InstallMetrics();
+    
     /**
      * Downloads a modpack from a curse URL.
      * 
@@ -61,42 +195,238 @@ public final class Blaspheme {
         
         LOGGER.log(Level.INFO, "Starting download for " + url);
         
-        String packUrl = url;
+        final InstallMetrics previousMetrics = InstallMetrics.current();
+        final InstallMetrics metrics = startMetrics();
+        final long installStart = System.nanoTime();
         
-        if (packUrl.endsWith("/"))
-            packUrl = packUrl.replaceAll(".$", "");
+        long phaseStart = System.nanoTime();
         
-        final String fileUrl = packUrl + "/files/latest";
-        final String finalUrl = getLocationHeader(fileUrl);
-        final Matcher matcher = FILE_NAME_URL_PATTERN.matcher(finalUrl);
+        try (PackDownload pack = fetchPack(url); PackArchive archive = new PackArchive(pack.getFile())) {
+            
+            metrics.recordTime(InstallMetrics.PHASE_ARCHIVE, phaseStart);
+            
+            final File outputDir = getOutputDir(pack.getName());
+            final File minecraftOutputDir = new File(outputDir, "minecraft");
+            
+            if (!minecraftOutputDir.exists())
+                minecraftOutputDir.mkdir();
+                
+            final Manifest manifest;
+            phaseStart = System.nanoTime();
+            
+            try (ManifestReader reader = archive.openManifest()) {
+                
+                manifest = downloadModpackFromManifest(minecraftOutputDir, reader);
+            }
+            
+            metrics.recordTime(InstallMetrics.PHASE_MODS, phaseStart);
+            
+            phaseStart = System.nanoTime();
+            writeOverrideHashes(minecraftOutputDir, archive.extractOverrides(manifest, minecraftOutputDir, false));
+            metrics.recordTime(InstallMetrics.PHASE_OVERRIDES, phaseStart);
+            
+            if (setupMultiMC)
+                setupMultimcInfo(manifest, outputDir);
+                
+            exportMetrics(metrics, installStart, outputDir);
+        }
         
-        if (matcher.matches()) {
+        finally {
             
-            final String packName = matcher.group(1);
+            InstallMetrics.setCurrent(previousMetrics);
+        }
+        
+        LOGGER.log(Level.INFO, "Pack downloaded sucessfully!");
+    }
+    
+    /**
+     * Downloads a modpack from a curse URL in the background. Cancelling the returned future
+     * stops the install, and deletes any partially downloaded files.
+     * 
+     * @param url The URL of the modpack to download. Must point to curse, or a similar
+     *        location.
+     * @param setupMultiMC Should a MultiMC instance also be created?
+     * @param executor The executor to run the install on.
+     * @return The future for the install.
+     */
+    public static InstallFuture<Void> downloadModPackAsync (String url, boolean setupMultiMC, Executor executor) {
+        
+        return InstallFuture.start( () -> {
             
-            LOGGER.log(Level.INFO, "Modpack filename is " + packName);
+            downloadModPackFromURL(url, setupMultiMC);
+            return null;
+        }, executor);
+    }
+    
+    /**
+     * Updates an installed modpack to the latest version from a curse URL. Only mods which
+     * were added or changed since the last install are downloaded, mods which were removed
+     * from the pack are deleted, and only overrides which changed in the pack are copied.
+     * Overrides which were edited since the last install are left alone.
+     * 
+     * @param url The URL of the modpack to update. Must point to curse, or a similar location.
+     * @param outputDir The directory of the installed instance. This is the directory which
+     *        contains the minecraft directory.
+     * @param setupMultiMC Should the MultiMC instance file also be updated?
+     * @return The plan which was applied.
+     */
+    public static UpdatePlan updateModPackFromURL (String url, File outputDir, boolean setupMultiMC) throws Exception {
+        
+        LOGGER.log(Level.INFO, "Starting update for " + url);
+        
+        final InstallMetrics previousMetrics = InstallMetrics.current();
+        final InstallMetrics metrics = startMetrics();
+        final long installStart = System.nanoTime();
+        
+        long phaseStart = System.nanoTime();
+        
+        try (PackDownload pack = fetchPack(url); PackArchive archive = new PackArchive(pack.getFile())) {
             
-            final File packMetaZip = getModpackData(packName, finalUrl);
-            final Manifest manifest = readManifest(packMetaZip);
-            final File outputDir = getOutputDir(packName);
+            metrics.recordTime(InstallMetrics.PHASE_ARCHIVE, phaseStart);
             
+            final Manifest manifest = archive.readManifest();
             final File minecraftOutputDir = new File(outputDir, "minecraft");
             
             if (!minecraftOutputDir.exists())
-                minecraftOutputDir.mkdir();
+                minecraftOutputDir.mkdirs();
+                
+            final InstallLock previous = InstallLock.read(minecraftOutputDir);
+            
+            phaseStart = System.nanoTime();
+            final UpdatePlan plan = updateModpackFromManifest(minecraftOutputDir, manifest);
+            metrics.recordTime(InstallMetrics.PHASE_MODS, phaseStart);
             
-            downloadModpackFromManifest(minecraftOutputDir, manifest);
-            copyOverrides(manifest, packMetaZip, minecraftOutputDir);
+            phaseStart = System.nanoTime();
+            writeOverrideHashes(minecraftOutputDir, archive.updateOverrides(manifest, minecraftOutputDir, previous != null ? previous.overrides : null));
+            metrics.recordTime(InstallMetrics.PHASE_OVERRIDES, phaseStart);
             
             if (setupMultiMC)
                 setupMultimcInfo(manifest, outputDir);
+                
+            exportMetrics(metrics, installStart, outputDir);
+            
+            LOGGER.log(Level.INFO, "Pack updated sucessfully!");
+            return plan;
+        }
+        
+        finally {
+            
+            InstallMetrics.setCurrent(previousMetrics);
+        }
+    }
+    
+    /**
+     * Updates an installed modpack to the latest version from a curse URL in the background.
+     * Cancelling the returned future stops the update, and deletes any partially downloaded
+     * files.
+     * 
+     * @param url The URL of the modpack to update. Must point to curse, or a similar location.
+     * @param outputDir The directory of the installed instance. This is the directory which
+     *        contains the minecraft directory.
+     * @param setupMultiMC Should the MultiMC instance file also be updated?
+     * @param executor The executor to run the update on.
+     * @return The future for the update, which completes with the plan that was applied.
+     */
+    public static InstallFuture<UpdatePlan> updateModPackAsync (String url, File outputDir, boolean setupMultiMC, Executor executor) {
+        
+        return InstallFuture.start( () -> updateModPackFromURL(url, outputDir, setupMultiMC), executor);
+    }
+    
+    /**
+     * Updates an installed modpack to the latest version from a curse URL, without touching
+     * the live instance. The update is built and verified in a staging directory next to the
+     * instance, reusing unchanged files through hard links. The live instance keeps running
+     * until {@link StagedInstall#swap()} is called, which only takes a pair of renames.
+     * 
+     * @param url The URL of the modpack to update. Must point to curse, or a similar location.
+     * @param outputDir The directory of the installed instance. This is the directory which
+     *        contains the minecraft directory. It does not need to exist yet.
+     * @param setupMultiMC Should the MultiMC instance file also be updated?
+     * @return The staged install, ready to be swapped in.
+     */
+    public static StagedInstall stageModPackFromURL (String url, File outputDir, boolean setupMultiMC) throws Exception {
+        
+        final StagedInstall staged = new StagedInstall(outputDir);
+        staged.install(url, setupMultiMC);
+        return staged;
+    }
+    
+    /**
+     * Fetches the zip of the latest file of a modpack. The zip is taken from the mirror when
+     * there is one which has the pack. Otherwise it is taken from the pack cache, which only
+     * downloads it again if it has changed, or downloaded to the temp directory when caching
+     * is disabled.
+     * 
+     * @param url The URL of the modpack. Must point to curse, or a similar location.
+     * @return The pack zip. Closing it deletes the zip, if it was downloaded.
+     */
+    public static PackDownload fetchPack (String url) throws IOException, URISyntaxException {
+        
+        final PackMirror mirror = getMirror();
+        final PackDownload mirrored = mirror != null ? mirror.getPack(url) : null;
+        
+        if (mirrored != null)
+            return mirrored;
+            
+        final String finalUrl = getLatestFileURL(url);
+        final Matcher matcher = FILE_NAME_URL_PATTERN.matcher(finalUrl);
+        
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Could not find the latest file for " + url);
+            
+        final String packName = matcher.group(1);
+        final PackCache cache = getPackCache();
+        LOGGER.log(Level.INFO, "Modpack filename is " + packName);
+        
+        if (cache != null) {
             
-            LOGGER.log(Level.INFO, "Pack downloaded sucessfully!");
+            final URL packUrl = new URL(finalUrl);
+            return new PackDownload(packName, getRetryPolicy().call(packUrl, null, () -> cache.fetch(finalUrl)), cache);
         }
+        
+        return new PackDownload(packName, downloadPackArchive(packName, finalUrl), true);
+    }
+    
+    /**
+     * Resolves the download URL for the latest file of a modpack.
+     * 
+     * @param url The URL of the modpack. Must point to curse, or a similar location.
+     * @return The final download URL of the latest pack file.
+     */
+    public static String getLatestFileURL (String url) throws IOException, URISyntaxException {
+        
+        String packUrl = url;
+        
+        if (packUrl.endsWith("/"))
+            packUrl = packUrl.replaceAll(".$", "");
+            
+        return getLocationHeader(packUrl + "/files/latest");
+    }
+    
+    /**
+     * Downloads the zip file for a modpack into the temp directory, without extracting it. The
+     * zip can be read with a {@link PackArchive}.
+     * 
+     * @param filename The intended name for the downloaded file.
+     * @param url The URL to read the file from.
+     * @return The downloaded zip file.
+     */
+    public static File downloadPackArchive (String filename, String url) throws IOException {
+        
+        final String zipName = filename.endsWith(".zip") ? filename : filename + ".zip";
+        final File packZip = new File(getTempDir("blaspheme_temp"), zipName);
+        
+        LOGGER.log(Level.INFO, "Downloading pack data!");
+        final URL packUrl = new URL(url);
+        getRetryPolicy().call(packUrl, null, () -> downloadFileFromURL(packZip, packUrl));
+        
+        return packZip;
     }
     
     /**
-     * Downloads a modpack manifest/meta file.
+     * Downloads a modpack manifest/meta file, and extracts it into a temporary directory. Pack
+     * installs read the zip directly through {@link #downloadPackArchive(String, String)}
+     * instead, which avoids writing the overrides to disk twice.
      * 
      * @param filename The intended name for the downloaded file.
      * @param url The URL to read the file from.
@@ -112,19 +442,120 @@ public final class Blaspheme {
         final String zipName = filename.endsWith(".zip") ? filename : filename + ".zip";
         final String retPath = tempPackDir.getAbsolutePath();
         
-        tempPackDir.deleteOnExit();
+        // deleteOnExit can not delete a directory which still has files in it.
+        Runtime.getRuntime().addShutdownHook(new Thread( () -> deleteRecursively(tempPackDir)));
         
         LOGGER.log(Level.INFO, "Downloading pack data!");
         
-        final File packDataFile = new File(tempPackDir, zipName);
-        downloadFileFromURL(packDataFile, new URL(url));
+        final PackCache cache = getPackCache();
+        final URL packUrl = new URL(url);
+        final File packDataFile = cache != null ? getRetryPolicy().call(packUrl, null, () -> cache.fetch(url)) : new File(tempPackDir, zipName);
+        
+        if (cache == null)
+            getRetryPolicy().call(packUrl, null, () -> downloadFileFromURL(packDataFile, packUrl));
+            
+        final long extractStart = System.nanoTime();
+        
+        try {
+            
+            final ZipFile zip = new ZipFile(packDataFile);
+            zip.extractAll(retPath);
+        }
+        
+        finally {
+            
+            if (cache != null)
+                cache.release(packDataFile);
+        }
         
-        final ZipFile zip = new ZipFile(packDataFile);
-        zip.extractAll(retPath);
+        getMetrics().recordTime(InstallMetrics.EXTRACT_TIME, extractStart);
         
         return tempPackDir;
     }
     
+    /**
+     * Deletes a file, or a directory and everything in it. Symbolic links are deleted rather
+     * than followed, so nothing outside of the directory is touched. Files which can not be
+     * deleted are left behind, like the directories holding them.
+     * 
+     * @param file The file to delete.
+     */
+    static void deleteRecursively (File file) {
+        
+        final Path root = file.toPath();
+        
+        if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS))
+            return;
+            
+        try {
+            
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                
+                @Override
+                public FileVisitResult visitFile (Path path, BasicFileAttributes attributes) throws IOException {
+                    
+                    path.toFile().delete();
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                @Override
+                public FileVisitResult visitFileFailed (Path path, IOException e) throws IOException {
+                    
+                    path.toFile().delete();
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                @Override
+                public FileVisitResult postVisitDirectory (Path dir, IOException e) throws IOException {
+                    
+                    dir.toFile().delete();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        
+        catch (final IOException e) {
+            
+            LOGGER.log(Level.WARNING, "Could not delete all of " + file, e);
+        }
+    }
+    
+    /**
+     * Checks if a mod file name is a plain file name. Names with a path separator or a parent
+     * reference are not, since they could place a file outside of the mods directory.
+     * 
+     * @param fileName The name to check.
+     * @return Whether or not the name is a plain file name.
+     */
+    static boolean isPlainFileName (String fileName) {
+        
+        return fileName != null && !fileName.isEmpty() && !fileName.equals(".") && !fileName.equals("..") && fileName.indexOf('/') < 0 && fileName.indexOf('\\') < 0;
+    }
+    
+    /**
+     * Gets the location of a mod file in a mods directory. File names come from the mod
+     * source, so names which would place the file anywhere other than directly inside the
+     * mods directory are rejected.
+     * 
+     * @param modsDir The mods directory.
+     * @param fileName The name of the mod file.
+     * @return The location of the mod file.
+     * @throws IOException If the name is not a plain file name.
+     */
+    static File getModFile (File modsDir, String fileName) throws IOException {
+        
+        if (!isPlainFileName(fileName))
+            throw new IOException("The mod file name " + fileName + " is not allowed");
+            
+        final Path modsPath = modsDir.toPath().toAbsolutePath().normalize();
+        final Path modPath = modsPath.resolve(fileName).normalize();
+        
+        if (!modsPath.equals(modPath.getParent()))
+            throw new IOException("The mod file " + fileName + " is outside of the mods directory");
+            
+        return modPath.toFile();
+    }
+    
     /**
      * Gets a temporary directory which can be used to download files. This directory is
      * located within the user's home directory.
@@ -161,7 +592,10 @@ public final class Blaspheme {
         
         LOGGER.log(Level.INFO, "Reading pack manifest");
         
-        return GSON.fromJson(new FileReader(manifestJson), Manifest.class);
+        try (ManifestReader reader = new ManifestReader(manifestJson)) {
+            
+            return reader.readAll();
+        }
     }
     
     /**
@@ -178,80 +612,336 @@ public final class Blaspheme {
         LOGGER.log(Level.INFO, "Downloading pack from manifest!");
         LOGGER.log(Level.INFO, "Manifest contains " + total + " files to download");
         
-        final File modsDir = new File(outputDir, "mods");
-        
-        if (!modsDir.exists())
-            modsDir.mkdir();
-        
-        for (final Manifest.FileData targetFile : manifest.files)
-            downloadModFile(targetFile, modsDir);
-        
-        LOGGER.log(Level.INFO, "Mod downloads complete");
+        downloadFiles(manifest.files, outputDir, new InstallLock(manifest));
         
         return outputDir;
     }
     
     /**
-     * Copies all of the overrides for a modpack. These are for things like configs and
-     * scripts. Basically everything that is not a mod.
+     * Reads a streamed manifest, and downloads all of the mods it contains. Downloads start
+     * as soon as the first file has been read, rather than once the whole manifest is parsed.
      * 
-     * @param manifest The manifest for the modpack.
-     * @param tempDir The temporary download location.
-     * @param outDir The propper output directory.
+     * @param outputDir The output directory.
+     * @param reader The reader for the manifest.
+     * @return The manifest that was read.
      */
-    public static void copyOverrides (Manifest manifest, File tempDir, File outDir) throws IOException {
+    public static Manifest downloadModpackFromManifest (File outputDir, ManifestReader reader) throws IOException {
         
-        LOGGER.log(Level.INFO, "Setting up overrides.");
-        final File overridesDir = new File(tempDir, manifest.overrides);
+        LOGGER.log(Level.INFO, "Downloading pack from streamed manifest!");
+        
+        final File modsDir = new File(outputDir, "mods");
         
-        Files.walk(overridesDir.toPath()).forEach(path -> {
+        if (!modsDir.exists())
+            modsDir.mkdir();
             
-            try {
-                
-                final File override = path.toFile();
-                
-                if (override.isFile())
-                    LOGGER.info("Copying " + path.getFileName());
-                
-                Files.copy(path, Paths.get(path.toString().replace(overridesDir.toString(), outDir.toString())));
-            }
+        try (DownloadEngine engine = new DownloadEngine()) {
             
-            catch (final IOException e) {
+            final DownloadReport report = engine.downloadAll(reader, modsDir);
+            final Manifest manifest = reader.getManifest();
+            
+            // Only installed files are locked, so the rest are tried again by the next update.
+            for (final DownloadResult result : report.getResults())
+                if (result != null && result.isInstalled())
+                    manifest.files.add(result.getFile());
                 
-            }
-        });
+            writeLock(report, outputDir, new InstallLock(manifest));
+            return manifest;
+        }
         
-        LOGGER.log(Level.INFO, "Overides completed!");
+        catch (final InterruptedException e) {
+            
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Mod downloads were interrupted");
+        }
     }
     
     /**
-     * Creates a MultiMC instance file for a modpack.
+     * Updates the mods of an installed pack to match a new manifest. The lock file written by
+     * the last install is compared with the manifest, and only the differences are applied.
+     * Instances without a lock file have every file downloaded.
      * 
-     * @param manifest The manifest for the pack.
-     * @param outputDir The propper output directory.
+     * @param outputDir The output directory of the installed pack.
+     * @param manifest The manifest to update to.
+     * @return The plan which was applied.
      */
-    public static void setupMultimcInfo (Manifest manifest, File outputDir) throws IOException {
+    public static UpdatePlan updateModpackFromManifest (File outputDir, Manifest manifest) throws IOException {
         
-        LOGGER.log(Level.INFO, "Creating MultiMC info.");
+        InstallLock previous = InstallLock.read(outputDir);
         
-        final File cfg = new File(outputDir, "instance.cfg");
+        if (previous == null) {
+            
+            LOGGER.log(Level.INFO, "No previous install found, all files will be downloaded");
+            previous = new InstallLock();
+        }
         
-        if (!cfg.exists())
-            cfg.createNewFile();
+        final UpdatePlan plan = UpdatePlan.create(previous, manifest);
+        final File modsDir = new File(outputDir, "mods");
         
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(cfg))) {
+        LOGGER.log(Level.INFO, "Update plan: " + plan);
+        
+        for (final InstallLock.LockedFile removed : plan.getRemoved()) {
             
-            writer.write("InstanceType=OneSix\n" + "IntendedVersion=" + manifest.minecraft.version + "\n" + "LogPrePostOutput=true\n" + "OverrideCommands=false\n" + "OverrideConsole=false\n" + "OverrideJavaArgs=false\n" + "OverrideJavaLocation=false\n" + "OverrideMemory=false\n" + "OverrideWindow=false\n" + "iconKey=default\n" + "lastLaunchTime=0\n" + "name=" + manifest.name + " " + manifest.version + "\n" + "notes=Modpack by " + manifest.author + ". Generated by CMPDL. Using Forge " + manifest.getForgeVersion() + ".\n" + "totalTimePlayed=0\n");
+            if (removed.exists(modsDir) && removed.getFile(modsDir).delete())
+                LOGGER.log(Level.INFO, "Removed " + removed.fileName);
         }
-    }
-    
-    /**
-     * Creates the actual output for the modpack downloads. This is not temporary!
-     * 
-     * @param packName The name of the pack being downloaded. Used as the output name.
-     * @return The actual output directory.
-     */
-    public static File getOutputDir (String packName) throws IOException, URISyntaxException {
+        
+        final InstallLock lock = new InstallLock(manifest);
+        final List<Manifest.FileData> downloads = new ArrayList<>(plan.getAdded());
+        final Map<Long, InstallLock.LockedFile> unchanged = new HashMap<>();
+        
+        for (final InstallLock.LockedFile installed : plan.getUnchanged())
+            unchanged.put(installed.getKey(), installed);
+        
+        // Kept until the new overrides are written, so a failed update can still be retried.
+        lock.overrides = previous.overrides;
+        
+        for (final Manifest.FileData file : manifest.files) {
+            
+            final InstallLock.LockedFile installed = unchanged.get(file.getKey());
+            
+            if (installed == null)
+                continue;
+                
+            if (installed.exists(modsDir))
+                lock.add(installed);
+                
+            else
+                downloads.add(file);
+        }
+        
+        downloadFiles(downloads, outputDir, lock);
+        return plan;
+    }
+    
+    /**
+     * Verifies the mods of an installed pack against the hashes in its lock file. Files are
+     * hashed in parallel across all cores. Only the files which are missing or do not match
+     * are downloaded again.
+     * 
+     * @param outputDir The output directory of the installed pack.
+     * @return The files which failed verification and were downloaded again.
+     */
+    public static List<InstallLock.LockedFile> verifyInstance (File outputDir) throws IOException {
+        
+        final InstallLock lock = InstallLock.read(outputDir);
+        
+        if (lock == null)
+            throw new IllegalArgumentException("The instance at " + outputDir + " has no lock file");
+            
+        final File modsDir = new File(outputDir, "mods");
+        
+        LOGGER.log(Level.INFO, "Verifying " + lock.files.size() + " mod files");
+        
+        final List<InstallLock.LockedFile> failed = lock.files.parallelStream().filter(file -> !file.verify(modsDir)).collect(Collectors.toList());
+        
+        if (failed.isEmpty()) {
+            
+            LOGGER.log(Level.INFO, "All mod files are intact");
+            return failed;
+        }
+        
+        LOGGER.log(Level.WARNING, failed.size() + " mod files failed verification, they will be downloaded again");
+        
+        final ModStore store = getModStore();
+        final List<Manifest.FileData> downloads = new ArrayList<>();
+        final Map<Long, Manifest.FileData> entries = new HashMap<>();
+        
+        if (lock.manifest != null && lock.manifest.files != null)
+            for (final Manifest.FileData data : lock.manifest.files)
+                entries.put(data.getKey(), data);
+                
+        for (final InstallLock.LockedFile file : failed) {
+            
+            if (file.exists(modsDir))
+                file.getFile(modsDir).delete();
+                
+            lock.files.remove(file);
+            
+            final ModStore.Entry entry = store != null ? store.get(file.projectID, file.fileID) : null;
+            
+            if (entry != null)
+                store.verify(entry);
+                
+            downloads.add(getManifestEntry(entries, file));
+        }
+        
+        downloadFiles(downloads, outputDir, lock);
+        return failed;
+    }
+    
+    /**
+     * Gets the manifest entry a locked file was installed for, so it is downloaded again with
+     * the same settings. If the manifest has no such entry, a required entry is made for it,
+     * since the file was installed.
+     * 
+     * @param entries The entries of the installed manifest, by key.
+     * @param file The locked file.
+     * @return The manifest entry for the file.
+     */
+    private static Manifest.FileData getManifestEntry (Map<Long, Manifest.FileData> entries, InstallLock.LockedFile file) {
+        
+        final Manifest.FileData entry = entries.get(file.getKey());
+        
+        if (entry != null)
+            return entry;
+            
+        final Manifest.FileData data = new Manifest.FileData();
+        data.projectID = file.projectID;
+        data.fileID = file.fileID;
+        data.required = true;
+        return data;
+    }
+    
+    /**
+     * Downloads a list of mod files, and records them in the lock file for the instance. The
+     * lock file is written even when some downloads fail, so the successful ones do not need
+     * to be downloaded again.
+     * 
+     * @param files The manifest entries to download.
+     * @param outputDir The output directory of the pack.
+     * @param lock The lock file to record the downloaded files in.
+     */
+    private static void downloadFiles (List<Manifest.FileData> files, File outputDir, InstallLock lock) throws IOException {
+        
+        final File modsDir = new File(outputDir, "mods");
+        
+        if (!modsDir.exists())
+            modsDir.mkdir();
+            
+        try (DownloadEngine engine = new DownloadEngine()) {
+            
+            writeLock(engine.downloadAll(files, modsDir), outputDir, lock);
+        }
+        
+        catch (final InterruptedException e) {
+            
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Mod downloads were interrupted");
+        }
+    }
+    
+    /**
+     * Adds the downloaded files to a lock file and writes it to the output directory.
+     * 
+     * @param report The report of the downloads.
+     * @param outputDir The output directory.
+     * @param lock The lock file to add the files to.
+     * @throws IOException If any of the downloads failed. The lock file is written first.
+     */
+    private static void writeLock (DownloadReport report, File outputDir, InstallLock lock) throws IOException {
+        
+        final File modsDir = new File(outputDir, "mods");
+        
+        LOGGER.log(Level.INFO, "Mod downloads complete. " + report);
+        
+        for (final DownloadResult result : report.getResults())
+            if (result != null && result.isInstalled())
+                lock.add(new InstallLock.LockedFile(result.getFile().projectID, result.getFile().fileID, result.getFileName(), result.getHash(), new File(modsDir, result.getFileName()).length()));
+                
+        lock.write(outputDir);
+        report.throwIfFailed();
+    }
+    
+    /**
+     * Records the hashes of the overrides written by an install in the lock file of the
+     * instance, so the next update can tell which overrides were edited.
+     * 
+     * @param outputDir The output directory.
+     * @param report The report of the written overrides.
+     */
+    static void writeOverrideHashes (File outputDir, OverrideReport report) throws IOException {
+        
+        final InstallLock lock = InstallLock.read(outputDir);
+        
+        if (lock != null) {
+            
+            lock.overrides = new TreeMap<>(report.getHashes());
+            lock.write(outputDir);
+        }
+    }
+    
+    /**
+     * Copies all of the overrides for a modpack. These are for things like configs and
+     * scripts. Basically everything that is not a mod.
+     * 
+     * @param manifest The manifest for the modpack.
+     * @param tempDir The temporary download location.
+     * @param outDir The propper output directory.
+     * @return A report of the copied overrides.
+     * @throws IOException If any override could not be copied. Every other override is still
+     *         copied first.
+     */
+    public static OverrideReport copyOverrides (Manifest manifest, File tempDir, File outDir) throws IOException {
+        
+        return copyOverrides(manifest, tempDir, outDir, false);
+    }
+    
+    /**
+     * Copies all of the overrides for a modpack. Files which already exist are left alone,
+     * unless replacing is enabled and their contents differ from the override. Files are
+     * copied in parallel by an {@link OverrideSync}.
+     * 
+     * @param manifest The manifest for the modpack.
+     * @param tempDir The temporary download location.
+     * @param outDir The propper output directory.
+     * @param replaceChanged Whether or not existing files with different contents should be
+     *        replaced.
+     * @return A report of the copied overrides.
+     * @throws IOException If any override could not be copied. Every other override is still
+     *         copied first.
+     */
+    public static OverrideReport copyOverrides (Manifest manifest, File tempDir, File outDir, boolean replaceChanged) throws IOException {
+        
+        LOGGER.log(Level.INFO, "Setting up overrides.");
+        final long startTime = System.nanoTime();
+        final OverrideReport report = new OverrideSync(replaceChanged).syncDirectory(new File(tempDir, manifest.overrides), outDir);
+        
+        getMetrics().recordTime(InstallMetrics.OVERRIDES_TIME, startTime);
+        LOGGER.log(Level.INFO, "Overides completed! " + report);
+        report.throwIfFailed();
+        return report;
+    }
+    
+    /**
+     * Checks if two files have the same contents, by comparing their size and hash.
+     * 
+     * @param first The first file.
+     * @param second The second file.
+     * @return Whether or not the files have the same contents.
+     */
+    public static boolean isSameContents (File first, File second) throws IOException {
+        
+        return first.length() == second.length() && Hashes.hashFile(first).equals(Hashes.hashFile(second));
+    }
+    
+    /**
+     * Creates a MultiMC instance file for a modpack.
+     * 
+     * @param manifest The manifest for the pack.
+     * @param outputDir The propper output directory.
+     */
+    public static void setupMultimcInfo (Manifest manifest, File outputDir) throws IOException {
+        
+        LOGGER.log(Level.INFO, "Creating MultiMC info.");
+        
+        final File cfg = new File(outputDir, "instance.cfg");
+        
+        if (!cfg.exists())
+            cfg.createNewFile();
+        
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(cfg))) {
+            
+            writer.write("InstanceType=OneSix\n" + "IntendedVersion=" + manifest.minecraft.version + "\n" + "LogPrePostOutput=true\n" + "OverrideCommands=false\n" + "OverrideConsole=false\n" + "OverrideJavaArgs=false\n" + "OverrideJavaLocation=false\n" + "OverrideMemory=false\n" + "OverrideWindow=false\n" + "iconKey=default\n" + "lastLaunchTime=0\n" + "name=" + manifest.name + " " + manifest.version + "\n" + "notes=Modpack by " + manifest.author + ". Generated by CMPDL. Using Forge " + manifest.getForgeVersion() + ".\n" + "totalTimePlayed=0\n");
+        }
+    }
+    
+    /**
+     * Creates the actual output for the modpack downloads. This is not temporary!
+     * 
+     * @param packName The name of the pack being downloaded. Used as the output name.
+     * @return The actual output directory.
+     */
+    public static File getOutputDir (String packName) throws IOException, URISyntaxException {
         
         final File jarFile = new File(Blaspheme.class.getProtectionDomain().getCodeSource().getLocation().toURI());
         final String homePath = jarFile.getParentFile().getAbsolutePath();
@@ -276,36 +966,238 @@ public final class Blaspheme {
      */
     public static void downloadModFile (Manifest.FileData file, File modsDir) throws IOException, URISyntaxException {
         
-        final String baseUrl = "http://minecraft.curseforge.com/projects/" + file.projectID;
+        if (installStoredFile(file, modsDir) != null)
+            return;
+            
+        final ResolvedFile resolved = resolveModFile(file);
         
-        String projectUrl = getLocationHeader(baseUrl);
-        projectUrl = projectUrl.replaceAll("\\?cookieTest=1", "");
+        try {
+            
+            downloadResolvedFile(resolved, modsDir);
+        }
         
-        final String fileDlUrl = projectUrl + "/files/" + file.fileID + "/download";
-        final String finalUrl = getLocationHeader(fileDlUrl);
-        final Matcher m = FILE_NAME_URL_PATTERN.matcher(finalUrl);
+        catch (final IOException e) {
+            
+            if (!resolved.isCached() || e instanceof InterruptedIOException)
+                throw e;
+            
+            LOGGER.log(Level.WARNING, "Cached location for " + file + " failed, resolving it again.");
+            downloadResolvedFile(resolveModFile(file, false), modsDir);
+        }
+    }
+    
+    /**
+     * Resolves the final download URL and file name for a manifest entry, using the mod
+     * source. By default this follows the redirects from the project ID to the project page,
+     * and from the file page to the actual file.
+     * 
+     * @param file The manifest entry to resolve.
+     * @return The resolved file.
+     */
+    public static ResolvedFile resolveModFile (Manifest.FileData file) throws IOException, URISyntaxException {
         
-        if (!m.matches())
-            throw new IllegalArgumentException("Mod file doesn't match filename pattern");
+        return resolveModFile(file, true);
+    }
+    
+    /**
+     * Resolves the final download URL and file name for a manifest entry, using the mod
+     * source.
+     * 
+     * @param file The manifest entry to resolve.
+     * @param useCache Whether or not cached redirects can be used.
+     * @return The resolved file.
+     */
+    public static ResolvedFile resolveModFile (Manifest.FileData file, boolean useCache) throws IOException, URISyntaxException {
+        
+        return getModSource().resolve(file, useCache);
+    }
+    
+    /**
+     * Gets the cache used for resolved redirects. The default cache is stored in the
+     * blaspheme_cache directory, and is created the first time it is needed.
+     * 
+     * @return The redirect cache, or null if caching is disabled.
+     */
+    public static synchronized RedirectCache getRedirectCache () {
         
-        String filename = m.group(1);
-        filename = URLDecoder.decode(filename, "UTF-8");
+        if (!redirectCacheSet) {
+            
+            redirectCache = new RedirectCache(new File(getTempDir("blaspheme_cache"), "redirects"));
+            redirectCacheSet = true;
+        }
+        
+        return redirectCache;
+    }
+    
+    /**
+     * Sets the cache used for resolved redirects.
+     * 
+     * @param cache The cache to use. Null will disable redirect caching.
+     */
+    public static synchronized void setRedirectCache (RedirectCache cache) {
         
-        if (filename.endsWith("cookieTest=1"))
-            LOGGER.log(Level.WARNING, "Missing file, it will be skipped!");
+        redirectCache = cache;
+        redirectCacheSet = true;
+    }
+    
+    /**
+     * Gets the cache used for pack zips. The default cache is stored in the blaspheme_cache
+     * directory, and is created the first time it is needed.
+     * 
+     * @return The pack cache, or null if caching is disabled.
+     */
+    public static synchronized PackCache getPackCache () {
         
-        else {
+        if (!packCacheSet) {
             
-            LOGGER.log(Level.INFO, "Downloading " + filename);
+            packCache = new PackCache(new File(getTempDir("blaspheme_cache"), "packs"));
+            packCacheSet = true;
+        }
+        
+        return packCache;
+    }
+    
+    /**
+     * Sets the cache used for pack zips.
+     * 
+     * @param cache The cache to use. Null will disable pack caching.
+     */
+    public static synchronized void setPackCache (PackCache cache) {
+        
+        packCache = cache;
+        packCacheSet = true;
+    }
+    
+    /**
+     * Installs a mod file from the mod store or the mirror, if either already has it. This
+     * does not need any network access, as the store knows the name of the file.
+     * 
+     * @param file The manifest entry to install.
+     * @param modsDir The directory to install the file to.
+     * @return The result of the install, or null if neither has the file.
+     */
+    public static DownloadResult installStoredFile (Manifest.FileData file, File modsDir) throws IOException {
+        
+        return installStoredFile(getModStore(), file, modsDir);
+    }
+    
+    /**
+     * Installs a mod file from a mod store, if the store already has it. When the store does
+     * not have the file, the mirror is checked next.
+     * 
+     * @param store The store to install from. Can be null.
+     * @param file The manifest entry to install.
+     * @param modsDir The directory to install the file to.
+     * @return The result of the install, or null if neither has the file.
+     * @throws IOException If the file could not be installed, or if the mirror is offline
+     *         and does not have the file.
+     */
+    public static DownloadResult installStoredFile (ModStore store, Manifest.FileData file, File modsDir) throws IOException {
+        
+        final ModStore.Entry entry = store != null ? store.get(file.projectID, file.fileID) : null;
+        final PackMirror mirror = getMirror();
+        
+        if (entry == null)
+            return mirror != null && mirror.getStore() != store ? mirror.install(file, modsDir) : null;
             
-            final File modFile = new File(modsDir, filename);
+        final File modFile = new File(modsDir, entry.getFileName());
+        
+        if (modFile.exists()) {
             
-            if (modFile.exists())
+            if (entry.getHash().equals(Hashes.hashFile(modFile))) {
+                
                 LOGGER.log(Level.INFO, "The mod " + modFile.getName() + " already exists. It will not be downloaded");
+                return new DownloadResult(file, DownloadResult.Status.EXISTING, entry.getFileName(), null, entry.getHash());
+            }
             
-            else
-                downloadFileFromURL(modFile, new URL(finalUrl));
+            LOGGER.log(Level.WARNING, "The mod " + modFile.getName() + " does not match the stored copy. It will be replaced");
+            modFile.delete();
+            
+            if (!store.verify(entry))
+                return mirror != null && mirror.getStore() != store ? mirror.install(file, modsDir) : null;
+        }
+        
+        LOGGER.log(Level.INFO, "Installing " + entry.getFileName() + " from the mod store");
+        store.install(entry, modFile);
+        return new DownloadResult(file, DownloadResult.Status.STORED, entry.getFileName(), null, entry.getHash());
+    }
+    
+    /**
+     * Downloads a mod file which has already been resolved. Files which are missing on curse,
+     * or which already exist in the mods directory will be skipped. When there is a mod store,
+     * the file is downloaded into the store and then installed from it.
+     * 
+     * @param resolved The resolved mod file.
+     * @param modsDir The directory to download the file to.
+     * @return The outcome of the download.
+     */
+    public static DownloadResult.Status downloadResolvedFile (ResolvedFile resolved, File modsDir) throws IOException {
+        
+        if (resolved.isMissing()) {
+            
+            LOGGER.log(Level.WARNING, "Missing file " + resolved.getFile() + ", it will be skipped!");
+            return DownloadResult.Status.MISSING;
+        }
+        
+        final File modFile = getModFile(modsDir, resolved.getFileName());
+        
+        if (modFile.exists()) {
+            
+            LOGGER.log(Level.INFO, "The mod " + modFile.getName() + " already exists. It will not be downloaded");
+            return DownloadResult.Status.EXISTING;
         }
+        
+        final ModStore store = getModStore();
+        
+        if (store == null) {
+            
+            LOGGER.log(Level.INFO, "Downloading " + resolved.getFileName());
+            getRetryPolicy().call(resolved.getURL(), null, () -> downloadFileFromURL(modFile, resolved.getURL()));
+            return DownloadResult.Status.DOWNLOADED;
+        }
+        
+        final Manifest.FileData data = resolved.getFile();
+        ModStore.Entry entry = store.get(data.projectID, data.fileID);
+        DownloadResult.Status status = DownloadResult.Status.STORED;
+        
+        if (entry == null) {
+            
+            LOGGER.log(Level.INFO, "Downloading " + resolved.getFileName());
+            entry = store.download(resolved);
+            status = DownloadResult.Status.DOWNLOADED;
+        }
+        
+        store.install(entry, modFile);
+        return status;
+    }
+    
+    /**
+     * Gets the machine wide mod store. The default store is located in the blaspheme_store
+     * directory, and is created the first time it is needed.
+     * 
+     * @return The mod store, or null if the store is disabled.
+     */
+    public static synchronized ModStore getModStore () {
+        
+        if (!modStoreSet) {
+            
+            modStore = new ModStore(getTempDir("blaspheme_store"));
+            modStoreSet = true;
+        }
+        
+        return modStore;
+    }
+    
+    /**
+     * Sets the machine wide mod store.
+     * 
+     * @param store The store to use. Null will disable the store, and download files straight
+     *        into each instance.
+     */
+    public static synchronized void setModStore (ModStore store) {
+        
+        modStore = store;
+        modStoreSet = true;
     }
     
     /**
@@ -316,26 +1208,42 @@ public final class Blaspheme {
      */
     public static String getLocationHeader (String targetURL) throws IOException, URISyntaxException {
         
+        final long startTime = System.nanoTime();
         URI uri = new URI(targetURL);
-        HttpURLConnection connection = null;
         
-        for (;;) {
+        for (int hops = 0;; hops++) {
             
+            if (hops > MAX_REDIRECTS)
+                throw new IOException("Too many redirects for " + targetURL);
+                
             final URL url = uri.toURL();
+            String redirectLocation;
             
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setInstanceFollowRedirects(false);
-            String redirectLocation = connection.getHeaderField("Location");
+            try (HttpTransport.Response response = send("HEAD", url, Collections.emptyMap())) {
+                
+                final int status = response.getStatus();
+                redirectLocation = response.getHeader("Location");
+                
+                if (status == 405 || status == 501)
+                    redirectLocation = getLocationWithGet(url);
+                    
+                else if (HttpStatusException.isRetryable(status))
+                    throw HttpStatusException.from(response, url);
+            }
             
-            if (redirectLocation == null)
+            if (redirectLocation == null) {
+                
+                getMetrics().record(InstallMetrics.REDIRECT_HOPS, hops);
+                getMetrics().recordTime(InstallMetrics.REDIRECT_TIME, startTime);
                 break;
-            
+            }
+                
             redirectLocation = redirectLocation.replaceAll("\\[", "%5B");
             redirectLocation = redirectLocation.replaceAll("\\]", "%5D");
             
             if (redirectLocation.startsWith("/"))
-                uri = new URI(uri.getScheme(), uri.getHost(), redirectLocation, uri.getFragment());
-            
+                uri = new URI(uri.getScheme(), null, uri.getHost(), uri.getPort(), redirectLocation, null, uri.getFragment());
+                
             else
                 uri = new URI(redirectLocation);
         }
@@ -344,25 +1252,519 @@ public final class Blaspheme {
     }
     
     /**
-     * Downloads a file from the interwebs.
+     * Gets the Location header for a URL using a GET request. This is used for servers which
+     * do not allow HEAD requests. The body is drained so the connection can be reused.
+     * 
+     * @param url The URL to request.
+     * @return The Location header, or null if the response was not a redirect.
+     */
+    private static String getLocationWithGet (URL url) throws IOException {
+        
+        try (HttpTransport.Response response = send("GET", url, Collections.emptyMap())) {
+            
+            if (HttpStatusException.isRetryable(response.getStatus()))
+                throw HttpStatusException.from(response, url);
+                
+            return response.getHeader("Location");
+        }
+    }
+    
+    /**
+     * Gets the transport used for all network requests.
+     * 
+     * @return The HTTP transport.
+     */
+    public static HttpTransport getHttpTransport () {
+        
+        return httpTransport;
+    }
+    
+    /**
+     * Sets the transport used for all network requests.
+     * 
+     * @param transport The HTTP transport to use.
+     */
+    public static void setHttpTransport (HttpTransport transport) {
+        
+        if (transport == null)
+            throw new IllegalArgumentException("The HTTP transport can not be null");
+            
+        httpTransport = transport;
+    }
+    
+    /**
+     * Sends a request with the current transport. Responses opened by an install running in an
+     * {@link InstallFuture} are tracked by it, so cancelling the install aborts them.
+     * 
+     * @param method The request method, such as GET or HEAD.
+     * @param url The URL to request.
+     * @param headers Extra request headers to send.
+     * @return The response, which must be closed.
+     */
+    static HttpTransport.Response send (String method, URL url, Map<String, String> headers) throws IOException {
+        
+        return InstallFuture.track(getHttpTransport().send(method, url, headers));
+    }
+    
+    /**
+     * Adds a listener which receives progress events from every download engine, including
+     * the ones used internally by the install methods.
+     * 
+     * @param listener The listener to add.
+     */
+    public static void addDownloadListener (DownloadListener listener) {
+        
+        downloadListeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener added with {@link #addDownloadListener(DownloadListener)}.
+     * 
+     * @param listener The listener to remove.
+     */
+    public static void removeDownloadListener (DownloadListener listener) {
+        
+        downloadListeners.remove(listener);
+    }
+    
+    /**
+     * Gets the source used to resolve mod files to download locations.
+     * 
+     * @return The mod source.
+     */
+    public static ModSource getModSource () {
+        
+        return modSource;
+    }
+    
+    /**
+     * Sets the source used to resolve mod files to download locations. This can be used to
+     * look files up from a mirror, or a local stub for testing.
+     * 
+     * @param source The mod source to use.
+     */
+    public static void setModSource (ModSource source) {
+        
+        if (source == null)
+            throw new IllegalArgumentException("The mod source can not be null");
+            
+        modSource = source;
+    }
+    
+    /**
+     * Gets how optional files are handled by default.
+     * 
+     * @return How optional files are handled.
+     */
+    public static DownloadEngine.OptionalFiles getOptionalFiles () {
+        
+        return optionalFiles;
+    }
+    
+    /**
+     * Sets how optional files are handled by default. Engines can override this with
+     * {@link DownloadEngine#setOptionalFiles(DownloadEngine.OptionalFiles)}. Skipping them is
+     * useful for server installs, which have no use for client side extras.
+     * 
+     * @param handling How optional files are handled.
+     */
+    public static void setOptionalFiles (DownloadEngine.OptionalFiles handling) {
+        
+        if (handling == null)
+            throw new IllegalArgumentException("The optional file handling can not be null");
+            
+        optionalFiles = handling;
+    }
+    
+    /**
+     * Gets the mirror which is checked for packs and mods before the network.
+     * 
+     * @return The mirror, or null if there is none.
+     */
+    public static PackMirror getMirror () {
+        
+        return mirror;
+    }
+    
+    /**
+     * Sets the mirror which is checked for packs and mods before the network. When the mirror
+     * is offline, nothing is looked up on the network.
+     * 
+     * @param packMirror The mirror to use. Null will disable the mirror.
+     */
+    public static void setMirror (PackMirror packMirror) {
+        
+        mirror = packMirror;
+    }
+    
+    /**
+     * Gets the policy used to retry requests which were rate limited or hit a server error.
+     * 
+     * @return The retry policy.
+     */
+    public static RetryPolicy getRetryPolicy () {
+        
+        return retryPolicy;
+    }
+    
+    /**
+     * Sets the policy used to retry requests which were rate limited or hit a server error.
+     * 
+     * @param policy The retry policy. Use a policy with one attempt to disable retrying.
+     */
+    public static void setRetryPolicy (RetryPolicy policy) {
+        
+        if (policy == null)
+            throw new IllegalArgumentException("The retry policy can not be null");
+            
+        retryPolicy = policy;
+    }
+    
+    /**
+     * Gets the metrics of the install running on the current thread. Outside of an install,
+     * these are the global metrics. A json summary of an install's metrics is written to the
+     * instance directory at the end of the install. Metrics can be turned off with
+     * {@link InstallMetrics#setEnabled(boolean)} on the global metrics.
+     * 
+     * @return The install metrics.
+     */
+    public static InstallMetrics getMetrics () {
+        
+        final InstallMetrics current = InstallMetrics.current();
+        return current != null ? current : metrics;
+    }
+    
+    /**
+     * Sets the global metrics, which are recorded to outside of an install and decide if
+     * installs record metrics.
+     * 
+     * @param installMetrics The metrics to record to.
+     */
+    public static void setMetrics (InstallMetrics installMetrics) {
+        
+        if (installMetrics == null)
+            throw new IllegalArgumentException("The install metrics can not be null");
+            
+        metrics = installMetrics;
+    }
+    
+    /**
+     * Creates the metrics for a new install, and binds them to the current thread. They are
+     * only enabled if the global metrics are. The caller should restore the previous metrics
+     * of the thread when the install is done.
+     * 
+     * @return The metrics of the install.
+     */
+    static InstallMetrics startMetrics () {
+        
+        final InstallMetrics installMetrics = new InstallMetrics();
+        installMetrics.setEnabled(metrics.isEnabled());
+        InstallMetrics.setCurrent(installMetrics);
+        return installMetrics;
+    }
+    
+    /**
+     * Records the wall time of an install, and writes the metrics summary to each instance it
+     * installed.
+     * 
+     * @param installMetrics The metrics of the install.
+     * @param installStart The time the install started, from {@link System#nanoTime()}.
+     * @param outputDirs The instance directories of the install.
+     */
+    static void exportMetrics (InstallMetrics installMetrics, long installStart, File... outputDirs) {
+        
+        if (!installMetrics.isEnabled())
+            return;
+            
+        installMetrics.recordTime(InstallMetrics.PHASE_INSTALL, installStart);
+        
+        for (final File outputDir : outputDirs) {
+            
+            try {
+                
+                installMetrics.write(new File(outputDir, InstallMetrics.FILE_NAME));
+            }
+            
+            catch (final IOException e) {
+                
+                LOGGER.log(Level.WARNING, "Could not write install metrics to " + outputDir, e);
+            }
+        }
+    }
+    
+    /**
+     * Gets the listeners which receive events from every download engine.
+     * 
+     * @return The global download listeners.
+     */
+    public static List<DownloadListener> getDownloadListeners () {
+        
+        return Collections.unmodifiableList(downloadListeners);
+    }
+    
+    /**
+     * Configures segmented downloads. Files at least as large as the threshold are split into
+     * byte ranges and downloaded over several connections, when the server supports range
+     * requests. Smaller files are always downloaded over a single stream.
+     * 
+     * @param segments The amount of connections to use per file. 1 disables segmented
+     *        downloads.
+     * @param threshold The minimum size in bytes for a file to be downloaded in segments.
+     */
+    public static void setSegmentedDownloads (int segments, long threshold) {
+        
+        downloadSegments = Math.max(1, segments);
+        segmentThreshold = threshold;
+    }
+    
+    /**
+     * Gets the limiter shared by every install for downloaded bytes.
+     * 
+     * @return The network limiter.
+     */
+    public static BandwidthLimiter getNetworkLimiter () {
+        
+        return networkLimiter;
+    }
+    
+    /**
+     * Gets the limiter shared by every install for bytes written to disk. This covers
+     * downloads and overrides.
+     * 
+     * @return The disk limiter.
+     */
+    public static BandwidthLimiter getDiskLimiter () {
+        
+        return diskLimiter;
+    }
+    
+    /**
+     * Limits the bandwidth used by every install in the process. The limits can be changed
+     * while installs are running. Installs split the bandwidth by the weight of their
+     * {@link BandwidthLimiter.Share}.
+     * 
+     * @param networkRate The bytes per second which may be downloaded, or 0 for no limit.
+     * @param diskRate The bytes per second which may be written to disk, or 0 for no limit.
+     */
+    public static void setBandwidthLimits (long networkRate, long diskRate) {
+        
+        networkLimiter.setRate(networkRate);
+        diskLimiter.setRate(diskRate);
+    }
+    
+    /**
+     * Downloads a file from the interwebs. The file is first written to a .part file next to
+     * the target, and is only moved into place once it is complete. If the connection drops,
+     * the download is resumed from the bytes already on disk using a range request. A .part
+     * file left behind by an earlier run is resumed the same way.
      * 
      * @param file The target location for the downloaded file.
      * @param url The URL to download the file from.
+     * @return The SHA-1 hash of the downloaded file. Files downloaded in a single stream are
+     *         hashed as they arrive.
      * @throws IOException
      */
-    public static void downloadFileFromURL (File file, URL url) throws IOException {
+    public static String downloadFileFromURL (File file, URL url) throws IOException {
+        
+        return downloadFileFromURL(file, url, null);
+    }
+    
+    /**
+     * Downloads a file from the interwebs, reporting the bytes as they are transferred. See
+     * {@link #downloadFileFromURL(File, URL)}.
+     * 
+     * @param file The target location for the downloaded file.
+     * @param url The URL to download the file from.
+     * @param progress A consumer which is given the amount of bytes each time some are
+     *        written. Can be null.
+     * @return The SHA-1 hash of the downloaded file.
+     */
+    public static String downloadFileFromURL (File file, URL url, LongConsumer progress) throws IOException {
+        
+        return downloadFileFromURL(file, url, null, progress);
+    }
+    
+    /**
+     * Downloads a file, starting from a response which was already received for it. The
+     * first attempt reads the body of that response, and any retry resumes from what it
+     * wrote with a new request. See {@link #downloadFileFromURL(File, URL)}.
+     * 
+     * @param file The target location for the downloaded file.
+     * @param url The URL to download the file from.
+     * @param first A successful response for the whole file, which is closed once read. Null
+     *        sends a new request.
+     * @param progress A consumer which is given the amount of bytes each time some are
+     *        written. Can be null.
+     * @return The SHA-1 hash of the downloaded file.
+     */
+    static String downloadFileFromURL (File file, URL url, HttpTransport.Response first, LongConsumer progress) throws IOException {
+        
+        final File partFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".part");
+        final MessageDigest digest = Hashes.sha1();
+        final InstallMetrics metrics = getMetrics();
+        final long startTime = System.nanoTime();
+        IOException failure = null;
+        
+        for (int attempt = 1; attempt <= DOWNLOAD_ATTEMPTS; attempt++) {
+            
+            try {
+                
+                digest.reset();
+                
+                if (attempt == 1 && first != null)
+                    try (HttpTransport.Response response = first) {
+                        
+                        writePartFile(response, partFile, 0, url, digest, progress);
+                    }
+                    
+                else
+                    downloadToPartFile(partFile, url, digest, progress);
+                    
+                failure = null;
+                break;
+            }
+            
+            catch (final HttpStatusException e) {
+                
+                // Retrying straight away would not help, rate limits are left to the caller.
+                throw e;
+            }
+            
+            catch (final IOException e) {
+                
+                if (e instanceof InterruptedIOException || Thread.currentThread().isInterrupted()) {
+                    
+                    // Cancelled downloads are not resumed, so the partial file is removed.
+                    partFile.delete();
+                    throw e instanceof InterruptedIOException ? e : new InterruptedIOException("Download of " + file.getName() + " was interrupted");
+                }
+                
+                failure = e;
+                metrics.add(InstallMetrics.DOWNLOAD_RETRIES, 1);
+                LOGGER.log(Level.WARNING, "Download of " + file.getName() + " failed on attempt " + attempt + " with " + partFile.length() + " bytes kept: " + e.getMessage());
+            }
+        }
+        
+        if (failure != null)
+            throw failure;
+            
+        try {
+            
+            Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        
+        catch (final AtomicMoveNotSupportedException e) {
+            
+            Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        
+        final long elapsed = System.nanoTime() - startTime;
+        metrics.record(InstallMetrics.DOWNLOAD_TIME, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        metrics.record(InstallMetrics.DOWNLOAD_RATE, elapsed > 0 ? (long) (file.length() * 1e9 / elapsed) : 0);
+        metrics.add(InstallMetrics.DOWNLOADED_FILES, 1);
+        metrics.add(InstallMetrics.DOWNLOADED_BYTES, file.length());
+        return Hashes.toHex(digest.digest());
+    }
+    
+    /**
+     * Downloads a file into a partial file, resuming from its current length when the server
+     * supports range requests.
+     * 
+     * @param partFile The partial file to write to.
+     * @param url The URL to download the file from.
+     * @param digest A reset digest, which will hold the hash of the complete file.
+     * @param progress The consumer to report transferred bytes to. Can be null.
+     * @throws IOException If the download fails, or ends before the full file was received.
+     */
+    private static void downloadToPartFile (File partFile, URL url, MessageDigest digest, LongConsumer progress) throws IOException {
+        
+        final long existing = partFile.isFile() ? partFile.length() : 0;
+        final Map<String, String> headers = new HashMap<>();
+        
+        if (existing > 0)
+            headers.put("Range", "bytes=" + existing + "-");
+            
+        final long requestTime = System.nanoTime();
+        
+        try (HttpTransport.Response response = send("GET", url, headers)) {
+            
+            // Transports may only send the request once the status is read.
+            response.getStatus();
+            getMetrics().recordTime(InstallMetrics.FIRST_BYTE_TIME, requestTime);
+            RetryPolicy.reportLatency(System.nanoTime() - requestTime);
+            writePartFile(response, partFile, existing, url, digest, progress);
+        }
+    }
+    
+    /**
+     * Writes the body of a response into a partial file.
+     * 
+     * @param response The response for the file.
+     * @param partFile The partial file to write to.
+     * @param existing The amount of bytes which were requested to be skipped.
+     * @param url The URL the response is for.
+     * @param digest A reset digest, which will hold the hash of the complete file.
+     * @param progress The consumer to report transferred bytes to. Can be null.
+     * @throws IOException If the download fails, or ends before the full file was received.
+     */
+    private static void writePartFile (HttpTransport.Response response, File partFile, long existing, URL url, MessageDigest digest, LongConsumer progress) throws IOException {
+        
+        final int code = response.getStatus();
+        
+        if (code == 416 && ("bytes */" + existing).equals(response.getHeader("Content-Range"))) {
+            
+            Hashes.update(digest, partFile);
+            return;
+        }
+            
+        if (code >= 400)
+            throw HttpStatusException.from(response, url);
+            
+        final String range = response.getHeader("Content-Range");
+        final boolean append = code == 206 && range != null && range.startsWith("bytes " + existing + "-");
+        
+        if (code == 206 && !append) {
+            
+            partFile.delete();
+            throw new IOException("Server returned an unexpected range " + range);
+        }
         
-        if (!file.exists())
-            file.createNewFile();
+        final long length = response.getContentLength();
+        final long expected = length < 0 ? -1 : append ? existing + length : length;
         
-        try (InputStream instream = url.openStream(); FileOutputStream outStream = new FileOutputStream(file)) {
+        if (!append && downloadSegments > 1 && length >= segmentThreshold && "bytes".equalsIgnoreCase(response.getHeader("Accept-Ranges"))) {
             
-            final byte[] buff = new byte[4096];
+            try {
+                
+                new SegmentedDownload(url, partFile, length, downloadSegments, DOWNLOAD_ATTEMPTS, progress).download(response.getBody());
+                
+                // Only the first segment was read from this response. Closing it would
+                // drain the rest of the file in the background, outside of the host limit.
+                response.abort();
+                
+                // Segments arrive out of order, so the file is hashed once it is complete.
+                Hashes.update(digest, partFile);
+            }
             
-            int i;
+            catch (final IOException e) {
+                
+                // Segments are written out of order, so there is nothing to resume from.
+                partFile.delete();
+                throw e;
+            }
             
-            while ((i = instream.read(buff)) > 0)
-                outStream.write(buff, 0, i);
+            return;
         }
+        
+        if (append)
+            Hashes.update(digest, partFile);
+            
+        try (FileChannel channel = FileChannel.open(partFile.toPath(), append ? PART_APPEND : PART_CREATE)) {
+            
+            Transfer.copy(response.getBody(), ProgressSink.wrap(LimitedSink.wrapDownload(new HashingSink(new FileSink(channel, append ? existing : 0), digest), BandwidthLimiter.Share.current()), progress), -1);
+        }
+        
+        if (expected >= 0 && partFile.length() != expected)
+            throw new IOException("Download ended after " + partFile.length() + " of " + expected + " bytes");
     }
 }
@@ -0,0 +1,1352 @@
+package net.darkhax.blaspheme;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+
+/**
+ * Downloads the files of a manifest in parallel. Each file passes through three pipeline
+ * stages, each with its own workers: resolving the download location, transferring the bytes,
+ * and verifying and moving the file into place. The stages are joined by bounded queues, so
+ * slow redirects never hold up active transfers, and the amount of files in flight stays
+ * limited. The results are gathered into a single {@link DownloadReport} rather than stopping
+ * at the first failure.
+ * 
+ * Files are transferred in priority order. Required files go before optional ones, and larger
+ * files go before smaller ones, so a single large file does not end up downloading alone at
+ * the end of an install. A list of files is sorted by the sizes already known before it is
+ * resolved, and resolved files wait for a transfer worker in the same order. File sizes
+ * are taken from the mod source or the redirect cache, and can optionally be probed with a
+ * HEAD request.
+ */
+public class DownloadEngine implements Closeable {
+    
+    /**
+     * The default amount of resolve workers.
+     */
+    public static final int DEFAULT_RESOLVE_WORKERS = 4;
+    
+    /**
+     * The default amount of transfer workers.
+     */
+    public static final int DEFAULT_WORKERS = 8;
+    
+    /**
+     * The default amount of verify workers.
+     */
+    public static final int DEFAULT_VERIFY_WORKERS = 2;
+    
+    /**
+     * The default capacity of the queues between stages.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+    
+    /**
+     * The default amount of connections allowed per host.
+     */
+    public static final int DEFAULT_HOST_LIMIT = 4;
+    
+    /**
+     * The default minimum time between progress events, in milliseconds.
+     */
+    public static final long DEFAULT_PROGRESS_INTERVAL = 250;
+    
+    /**
+     * The longest time an interrupted download waits for its workers to clean up, in
+     * milliseconds.
+     */
+    private static final long STOP_TIMEOUT = 5000;
+    
+    /**
+     * Marker placed on a queue to tell the next stage that no more jobs will follow.
+     */
+    private static final Job END = new Job(-1, null);
+    
+    /**
+     * The order jobs are transferred in. Required files go first, followed by the largest
+     * files, and then manifest order. The end marker always goes last.
+     */
+    private static final Comparator<Job> TRANSFER_ORDER = (first, second) -> {
+        
+        if (first == END || second == END)
+            return Boolean.compare(first == END, second == END);
+            
+        if (first.file.required != second.file.required)
+            return first.file.required ? -1 : 1;
+            
+        if (first.size != second.size)
+            return Long.compare(second.size, first.size);
+            
+        return Integer.compare(first.index, second.index);
+    };
+    
+    /**
+     * The executor used to run the stage workers.
+     */
+    private final ExecutorService executor;
+    
+    /**
+     * Whether or not the executor was created by the engine, and should be shut down with it.
+     */
+    private final boolean ownsExecutor;
+    
+    /**
+     * The limiter for connections per host.
+     */
+    private final HostLimiter hostLimiter;
+    
+    /**
+     * The amount of workers resolving download locations.
+     */
+    private final int resolveWorkers;
+    
+    /**
+     * The amount of workers transferring files.
+     */
+    private final int transferWorkers;
+    
+    /**
+     * The amount of workers verifying and finalizing files.
+     */
+    private final int verifyWorkers;
+    
+    /**
+     * The capacity of the queues between stages.
+     */
+    private final int queueCapacity;
+    
+    /**
+     * Listeners which receive events from this engine only.
+     */
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
+    
+    /**
+     * The minimum time between progress events, in milliseconds.
+     */
+    private volatile long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+    
+    /**
+     * The mod store used by this engine, if it has been set.
+     */
+    private volatile ModStore modStore;
+    
+    /**
+     * Whether or not the mod store has been set for this engine.
+     */
+    private volatile boolean modStoreSet;
+    
+    /**
+     * How optional files are handled by this engine, or null to use the global setting.
+     */
+    private volatile OptionalFiles optionalFiles;
+    
+    /**
+     * Whether or not file sizes which are not known are probed with a HEAD request.
+     */
+    private volatile boolean probeSizes;
+    
+    /**
+     * The bandwidth share used by this engine, or null to use the share of the calling thread.
+     */
+    private volatile BandwidthLimiter.Share share;
+    
+    /**
+     * Creates an engine with the default amount of workers and connections per host.
+     */
+    public DownloadEngine() {
+        
+        this(DEFAULT_WORKERS, DEFAULT_HOST_LIMIT);
+    }
+    
+    /**
+     * Creates an engine with its own worker threads.
+     * 
+     * @param workers The amount of transfer workers.
+     * @param hostLimit The amount of connections allowed per host.
+     */
+    public DownloadEngine(int workers, int hostLimit) {
+        
+        this(DEFAULT_RESOLVE_WORKERS, workers, DEFAULT_VERIFY_WORKERS, DEFAULT_QUEUE_CAPACITY, hostLimit);
+    }
+    
+    /**
+     * Creates an engine with its own worker threads.
+     * 
+     * @param resolveWorkers The amount of workers resolving download locations.
+     * @param transferWorkers The amount of workers transferring files.
+     * @param verifyWorkers The amount of workers verifying and finalizing files.
+     * @param queueCapacity The capacity of the queues between stages.
+     * @param hostLimit The amount of connections allowed per host.
+     */
+    public DownloadEngine(int resolveWorkers, int transferWorkers, int verifyWorkers, int queueCapacity, int hostLimit) {
+        
+        this(Executors.newCachedThreadPool(new WorkerFactory()), true, resolveWorkers, transferWorkers, verifyWorkers, queueCapacity, hostLimit);
+    }
+    
+    /**
+     * Creates an engine which runs on an existing executor. This can be used to run downloads
+     * on virtual threads, or a shared pool. The executor must be able to run every stage
+     * worker at once, and will not be shut down by the engine.
+     * 
+     * @param executor The executor to run downloads on.
+     * @param hostLimit The amount of connections allowed per host.
+     */
+    public DownloadEngine(ExecutorService executor, int hostLimit) {
+        
+        this(executor, false, DEFAULT_RESOLVE_WORKERS, DEFAULT_WORKERS, DEFAULT_VERIFY_WORKERS, DEFAULT_QUEUE_CAPACITY, hostLimit);
+    }
+    
+    private DownloadEngine(ExecutorService executor, boolean ownsExecutor, int resolveWorkers, int transferWorkers, int verifyWorkers, int queueCapacity, int hostLimit) {
+        
+        if (resolveWorkers < 1 || transferWorkers < 1 || verifyWorkers < 1 || queueCapacity < 1)
+            throw new IllegalArgumentException("Every stage needs at least one worker and queue slot");
+            
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.hostLimiter = new HostLimiter(hostLimit);
+        this.resolveWorkers = resolveWorkers;
+        this.transferWorkers = transferWorkers;
+        this.verifyWorkers = verifyWorkers;
+        this.queueCapacity = queueCapacity;
+    }
+    
+    /**
+     * Downloads all of the files into a mods directory. This will block until every file has
+     * either been downloaded or failed.
+     * 
+     * @param files The manifest entries to download.
+     * @param modsDir The directory to download the files to.
+     * @return A report of all the downloads.
+     */
+    public DownloadReport downloadAll (List<Manifest.FileData> files, File modsDir) throws InterruptedException {
+        
+        return this.downloadAll(files, file -> modsDir);
+    }
+    
+    /**
+     * Downloads all of the files, each into the directory chosen for it. This will block until
+     * every file has either been downloaded or failed.
+     * 
+     * @param files The manifest entries to download.
+     * @param dirs Gets the directory to download each entry to. The directory must exist.
+     * @return A report of all the downloads.
+     */
+    DownloadReport downloadAll (List<Manifest.FileData> files, Function<Manifest.FileData, File> dirs) throws InterruptedException {
+        
+        final List<Integer> order = new ArrayList<>();
+        final long[] sizes = new long[files.size()];
+        
+        for (int index = 0; index < files.size(); index++) {
+            
+            order.add(index);
+            sizes[index] = getKnownSize(files.get(index));
+        }
+        
+        // Required and large files are resolved first, so they reach the transfer stage first.
+        order.sort( (first, second) -> {
+            
+            final boolean firstRequired = files.get(first).required;
+            
+            if (firstRequired != files.get(second).required)
+                return firstRequired ? -1 : 1;
+                
+            return Long.compare(sizes[second], sizes[first]);
+        });
+        
+        final Iterator<Integer> iterator = order.iterator();
+        final Run run = new Run( () -> iterator.hasNext() ? files.get(iterator.next()) : null, false, dirs, order);
+        
+        for (final Manifest.FileData file : files)
+            run.tracker.queued(file);
+            
+        return this.execute(run);
+    }
+    
+    /**
+     * Downloads all of the files of a streamed manifest into a mods directory. Files are
+     * queued as they are read, so downloads start before the whole manifest has been parsed.
+     * This will block until every file has either been downloaded or failed. The reader is
+     * not closed.
+     * 
+     * @param reader The reader for the manifest.
+     * @param modsDir The directory to download the files to.
+     * @return A report of all the downloads.
+     * @throws IOException If the manifest could not be read. Files read before the error are
+     *         still downloaded first.
+     */
+    public DownloadReport downloadAll (ManifestReader reader, File modsDir) throws IOException, InterruptedException {
+        
+        final Run run = new Run(reader::nextFile, true, file -> modsDir, null);
+        final DownloadReport report = this.execute(run);
+        
+        if (run.sourceError != null)
+            throw run.sourceError;
+            
+        return report;
+    }
+    
+    /**
+     * Runs the workers for a set of downloads, and waits for all of them to finish.
+     * 
+     * @param run The downloads to run.
+     * @return A report of all the downloads.
+     */
+    private DownloadReport execute (Run run) throws InterruptedException {
+        
+        final long startTime = System.currentTimeMillis();
+        final List<Future<?>> futures = new ArrayList<>();
+        
+        for (int worker = 0; worker < this.resolveWorkers; worker++)
+            futures.add(this.executor.submit( () -> run.work(run::resolveStage)));
+            
+        for (int worker = 0; worker < this.transferWorkers; worker++)
+            futures.add(this.executor.submit( () -> run.work(run::transferStage)));
+            
+        for (int worker = 0; worker < this.verifyWorkers; worker++)
+            futures.add(this.executor.submit( () -> run.work(run::verifyStage)));
+            
+        try {
+            
+            for (final Future<?> future : futures) {
+                
+                try {
+                    
+                    future.get();
+                }
+                
+                catch (final ExecutionException e) {
+                    
+                    Blaspheme.LOGGER.log(Level.SEVERE, "Download worker failed", e.getCause());
+                }
+            }
+        }
+        
+        catch (final InterruptedException e) {
+            
+            for (final Future<?> future : futures)
+                future.cancel(true);
+                
+            // Partial files are deleted by the workers, so they are given time to finish.
+            if (!run.awaitWorkers(STOP_TIMEOUT))
+                Blaspheme.LOGGER.log(Level.WARNING, "Download workers did not stop within " + STOP_TIMEOUT + "ms");
+                
+            throw e;
+        }
+        
+        finally {
+            
+            run.releaseAll();
+        }
+        
+        final DownloadReport report = new DownloadReport(run.getResults(), System.currentTimeMillis() - startTime);
+        run.tracker.finished(report);
+        return report;
+    }
+    
+    /**
+     * Resolves a batch of files while holding a connection slot for the lookup host. Requests
+     * which are rate limited are retried by the {@link RetryPolicy}, which also adapts the host
+     * limit.
+     * 
+     * @param source The source to resolve the files with.
+     * @param files The manifest entries to resolve.
+     * @param useCache Whether or not cached lookups can be used.
+     * @return The resolved files, in the same order as the entries.
+     */
+    private List<ResolvedFile> resolve (ModSource source, List<Manifest.FileData> files, boolean useCache) throws Exception {
+        
+        final URL lookupUrl = source.getLookupURL(files.get(0));
+        final List<ResolvedFile> resolved = Blaspheme.getRetryPolicy().call(lookupUrl, this.hostLimiter, () -> source.resolveAll(files, useCache));
+        
+        if (resolved.size() != files.size())
+            throw new IOException("The mod source resolved " + resolved.size() + " of " + files.size() + " files");
+            
+        return resolved;
+    }
+    
+    /**
+     * Gets the size of a manifest entry, if it was recorded in the redirect cache by an
+     * earlier download. This does not make any requests.
+     * 
+     * @param file The manifest entry.
+     * @return The size of the file in bytes, or -1 if it is not known.
+     */
+    private static long getKnownSize (Manifest.FileData file) {
+        
+        final RedirectCache cache = Blaspheme.getRedirectCache();
+        final String cached = cache != null ? cache.get(RedirectCache.sizeKey(file.projectID, file.fileID)) : null;
+        return cached != null ? Long.parseLong(cached) : -1;
+    }
+    
+    /**
+     * Gets the size of a resolved file. The size given by the mod source is used first,
+     * followed by the size recorded in the redirect cache by an earlier download. If neither
+     * is known and probing is enabled, the size is requested with a HEAD request. A failed
+     * probe leaves the size unknown rather than failing the file.
+     * 
+     * @param resolved The resolved file.
+     * @return The size of the file in bytes, or -1 if it is not known.
+     */
+    private long getSize (ResolvedFile resolved) throws IOException {
+        
+        if (resolved.getSize() >= 0)
+            return resolved.getSize();
+            
+        final long known = getKnownSize(resolved.getFile());
+        
+        if (known >= 0)
+            return known;
+            
+        if (!this.probeSizes)
+            return -1;
+            
+        final URL fileUrl = resolved.getURL();
+        final long size;
+        
+        try {
+            
+            size = Blaspheme.getRetryPolicy().call(fileUrl, this.hostLimiter, () -> {
+                
+                final long requestTime = System.nanoTime();
+                
+                try (HttpTransport.Response response = Blaspheme.send("HEAD", fileUrl, Collections.emptyMap())) {
+                    
+                    response.getStatus();
+                    RetryPolicy.reportLatency(System.nanoTime() - requestTime);
+                    
+                    if (HttpStatusException.isRetryable(response.getStatus()))
+                        throw HttpStatusException.from(response, fileUrl);
+                        
+                    return response.getStatus() < 300 ? response.getContentLength() : -1;
+                }
+            });
+        }
+        
+        catch (final InterruptedIOException e) {
+            
+            throw e;
+        }
+        
+        catch (final IOException e) {
+            
+            Blaspheme.LOGGER.log(Level.FINE, "Could not probe the size of " + resolved.getFileName(), e);
+            return -1;
+        }
+        
+        final RedirectCache cache = Blaspheme.getRedirectCache();
+        
+        if (cache != null && size >= 0)
+            cache.put(RedirectCache.sizeKey(resolved.getFile().projectID, resolved.getFile().fileID), Long.toString(size));
+            
+        return size;
+    }
+    
+    /**
+     * Downloads a resolved file while holding a connection slot for its host. Requests which
+     * are rate limited are retried by the {@link RetryPolicy}, which also adapts the host limit.
+     * 
+     * @param resolved The resolved file.
+     * @param target The file to download to.
+     * @param progress The consumer to report transferred bytes to.
+     * @return The SHA-1 hash of the downloaded file.
+     */
+    private String transfer (ResolvedFile resolved, File target, LongConsumer progress) throws IOException {
+        
+        final URL fileUrl = resolved.getURL();
+        
+        Blaspheme.LOGGER.log(Level.FINE, "Downloading " + resolved.getFileName());
+        return Blaspheme.getRetryPolicy().call(fileUrl, this.hostLimiter, () -> Blaspheme.downloadFileFromURL(target, fileUrl, progress));
+    }
+    
+    /**
+     * Gets the limiter for connections per host.
+     * 
+     * @return The host limiter.
+     */
+    public HostLimiter getHostLimiter () {
+        
+        return this.hostLimiter;
+    }
+    
+    /**
+     * Adds a listener which receives events from this engine. Listeners added with
+     * {@link Blaspheme#addDownloadListener(DownloadListener)} receive them as well.
+     * 
+     * @param listener The listener to add.
+     */
+    public void addListener (DownloadListener listener) {
+        
+        this.listeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener added with {@link #addListener(DownloadListener)}.
+     * 
+     * @param listener The listener to remove.
+     */
+    public void removeListener (DownloadListener listener) {
+        
+        this.listeners.remove(listener);
+    }
+    
+    /**
+     * Sets the minimum time between progress events. Byte level progress is coalesced into
+     * one event per interval.
+     * 
+     * @param millis The interval in milliseconds.
+     */
+    public void setProgressInterval (long millis) {
+        
+        this.progressInterval = Math.max(0, millis);
+    }
+    
+    /**
+     * Gets the mod store used by this engine. This is the global store, unless a store has
+     * been set for this engine.
+     * 
+     * @return The mod store, or null if there is none.
+     */
+    public ModStore getModStore () {
+        
+        return this.modStoreSet ? this.modStore : Blaspheme.getModStore();
+    }
+    
+    /**
+     * Sets the mod store used by this engine, instead of the global store.
+     * 
+     * @param store The store to use. Null will disable the store for this engine.
+     */
+    public void setModStore (ModStore store) {
+        
+        this.modStore = store;
+        this.modStoreSet = true;
+    }
+    
+    /**
+     * Gets how optional files are handled by this engine. This is the global setting, unless
+     * one has been set for this engine.
+     * 
+     * @return How optional files are handled.
+     */
+    public OptionalFiles getOptionalFiles () {
+        
+        final OptionalFiles handling = this.optionalFiles;
+        return handling != null ? handling : Blaspheme.getOptionalFiles();
+    }
+    
+    /**
+     * Sets how optional files are handled by this engine, instead of the global setting.
+     * 
+     * @param handling How optional files are handled. Null will use the global setting.
+     */
+    public void setOptionalFiles (OptionalFiles handling) {
+        
+        this.optionalFiles = handling;
+    }
+    
+    /**
+     * Gets the bandwidth share used by this engine. This is the share of the calling thread,
+     * unless one has been set for this engine.
+     * 
+     * @return The bandwidth share.
+     */
+    public BandwidthLimiter.Share getShare () {
+        
+        final BandwidthLimiter.Share engineShare = this.share;
+        return engineShare != null ? engineShare : BandwidthLimiter.Share.current();
+    }
+    
+    /**
+     * Sets the bandwidth share used by this engine. Engines with a higher weight get a larger
+     * part of the global bandwidth limits.
+     * 
+     * @param engineShare The bandwidth share. Null will use the share of the calling thread.
+     */
+    public void setShare (BandwidthLimiter.Share engineShare) {
+        
+        this.share = engineShare;
+    }
+    
+    /**
+     * Sets whether or not file sizes which are not known from the mod source or the redirect
+     * cache are probed with a HEAD request. This costs one request per file, but lets the
+     * largest files start first on the very first install.
+     * 
+     * @param probe Whether or not unknown sizes should be probed.
+     */
+    public void setProbeSizes (boolean probe) {
+        
+        this.probeSizes = probe;
+    }
+    
+    /**
+     * Shuts down the worker threads, if they were created by this engine.
+     */
+    @Override
+    public void close () {
+        
+        if (this.ownsExecutor)
+            this.executor.shutdownNow();
+    }
+    
+    /**
+     * The ways optional files can be handled. Required files are always downloaded first.
+     */
+    public enum OptionalFiles {
+        
+        /**
+         * Optional files are downloaded along with the required ones.
+         */
+        INCLUDE,
+        
+        /**
+         * Optional files are not started until every required file has been queued.
+         */
+        DEFER,
+        
+        /**
+         * Optional files are not downloaded at all. This is useful for server installs.
+         */
+        SKIP
+    }
+    
+    /**
+     * A source of manifest entries to download.
+     */
+    private interface FileSource {
+        
+        /**
+         * Gets the next manifest entry.
+         * 
+         * @return The next entry, or null if there are no more.
+         */
+        Manifest.FileData next () throws IOException;
+    }
+    
+    /**
+     * The worker loop of a pipeline stage.
+     */
+    private interface Stage {
+        
+        /**
+         * Runs the loop until the stage is finished.
+         */
+        void run () throws InterruptedException;
+    }
+    
+    /**
+     * The state of a single call to one of the download methods.
+     */
+    private class Run {
+        
+        /**
+         * The manifest entries to download.
+         */
+        private final FileSource source;
+        
+        /**
+         * Whether or not entries are queued as they are taken from the source.
+         */
+        private final boolean streaming;
+        
+        /**
+         * Gets the directory to download each entry to.
+         */
+        private final Function<Manifest.FileData, File> dirs;
+        
+        /**
+         * The index of the next manifest entry to resolve. Guarded by the source.
+         */
+        private int next;
+        
+        /**
+         * Whether or not the source has run out of entries. Guarded by the source.
+         */
+        private boolean exhausted;
+        
+        /**
+         * The error thrown by the source, if it failed.
+         */
+        private volatile IOException sourceError;
+        
+        /**
+         * The manifest index of each entry taken from the source, or null if the source is
+         * in manifest order.
+         */
+        private final List<Integer> order;
+        
+        /**
+         * Resolved jobs waiting to be transferred, in transfer order.
+         */
+        private final BlockingQueue<Job> transferQueue = new PriorityBlockingQueue<>(11, TRANSFER_ORDER);
+        
+        /**
+         * Free slots in the transfer queue, which keeps it bounded. A resolve worker takes a
+         * slot before queueing a job and waits while there are none, and a transfer worker
+         * gives it back when it takes the job. The end markers do not need a slot, so the
+         * transfer workers are always told to stop.
+         */
+        private final Semaphore transferSlots;
+        
+        /**
+         * Optional jobs held back until every required entry has been taken. Guarded by the
+         * source.
+         */
+        private final Deque<Job> deferred = new ArrayDeque<>();
+        
+        /**
+         * How optional files are handled for the run.
+         */
+        private final OptionalFiles optionalFiles = getOptionalFiles();
+        
+        /**
+         * Transferred jobs waiting to be verified.
+         */
+        private final BlockingQueue<Job> verifyQueue;
+        
+        /**
+         * The amount of resolve workers which have not finished yet.
+         */
+        private final AtomicInteger activeResolvers;
+        
+        /**
+         * The amount of transfer workers which have not finished yet.
+         */
+        private final AtomicInteger activeTransfers;
+        
+        /**
+         * The result for each manifest entry, by index.
+         */
+        private final List<DownloadResult> results = new ArrayList<>();
+        
+        /**
+         * The progress of the run, which sends events to the listeners.
+         */
+        private final ProgressTracker tracker;
+        
+        /**
+         * The mod store used for the run.
+         */
+        private final ModStore store = getModStore();
+        
+        /**
+         * Jobs which hold a claim on their temporary store file.
+         */
+        private final Set<Job> claimed = ConcurrentHashMap.newKeySet();
+        
+        /**
+         * The source used to resolve files for the run.
+         */
+        private final ModSource modSource = Blaspheme.getModSource();
+        
+        /**
+         * The bandwidth share used for the run.
+         */
+        private final BandwidthLimiter.Share share = getShare();
+        
+        /**
+         * The metrics of the install the run belongs to.
+         */
+        private final InstallMetrics metrics = Blaspheme.getMetrics();
+        
+        /**
+         * The install the run belongs to, or null if it is not part of an
+         * {@link InstallFuture}.
+         */
+        private final InstallFuture<?> install = InstallFuture.current();
+        
+        /**
+         * The amount of workers running a stage. Guarded by the run.
+         */
+        private int runningWorkers;
+        
+        /**
+         * Whether or not the run was stopped, after which no more workers start. Guarded by
+         * the run.
+         */
+        private boolean stopped;
+        
+        public Run(FileSource source, boolean streaming, Function<Manifest.FileData, File> dirs, List<Integer> order) {
+            
+            this.source = source;
+            this.streaming = streaming;
+            this.dirs = dirs;
+            this.order = order;
+            this.transferSlots = new Semaphore(DownloadEngine.this.queueCapacity);
+            this.verifyQueue = new ArrayBlockingQueue<>(DownloadEngine.this.queueCapacity);
+            this.activeResolvers = new AtomicInteger(DownloadEngine.this.resolveWorkers);
+            this.activeTransfers = new AtomicInteger(DownloadEngine.this.transferWorkers);
+            
+            final List<DownloadListener> listeners = new ArrayList<>(Blaspheme.getDownloadListeners());
+            listeners.addAll(DownloadEngine.this.listeners);
+            this.tracker = new ProgressTracker(listeners, DownloadEngine.this.progressInterval);
+        }
+        
+        /**
+         * Runs a stage on the current worker thread, with the metrics and the future of the
+         * install bound to the thread.
+         * 
+         * @param stage The stage to run.
+         * @return Nothing, so this can be submitted as a task that throws.
+         */
+        private Void work (Stage stage) throws InterruptedException {
+            
+            synchronized (this) {
+                
+                if (this.stopped)
+                    return null;
+                    
+                this.runningWorkers++;
+            }
+            
+            InstallMetrics.setCurrent(this.metrics);
+            InstallFuture.setCurrent(this.install);
+            
+            try {
+                
+                stage.run();
+                return null;
+            }
+            
+            finally {
+                
+                InstallMetrics.setCurrent(null);
+                InstallFuture.setCurrent(null);
+                
+                synchronized (this) {
+                    
+                    this.runningWorkers--;
+                    this.notifyAll();
+                }
+            }
+        }
+        
+        /**
+         * Stops any more workers from starting, and waits for the running ones to finish.
+         * 
+         * @param timeout The longest time to wait, in milliseconds.
+         * @return Whether or not every worker has finished.
+         */
+        private synchronized boolean awaitWorkers (long timeout) {
+            
+            this.stopped = true;
+            
+            final long deadline = System.currentTimeMillis() + timeout;
+            long remaining = timeout;
+            
+            try {
+                
+                while (this.runningWorkers > 0 && remaining > 0) {
+                    
+                    this.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+            
+            catch (final InterruptedException e) {
+                
+                Thread.currentThread().interrupt();
+            }
+            
+            return this.runningWorkers == 0;
+        }
+        
+        /**
+         * Worker loop for the resolve stage. Entries are resolved in batches, as large as the
+         * mod source allows. Files which are already installed, in the mod store, or missing
+         * from the source are finished here. Everything else is passed on to the transfer
+         * stage.
+         */
+        private void resolveStage () throws InterruptedException {
+            
+            try {
+                
+                List<Job> batch;
+                
+                while (!(batch = this.nextBatch()).isEmpty()) {
+                    
+                    final List<Job> pending = new ArrayList<>();
+                    final List<Manifest.FileData> files = new ArrayList<>();
+                    
+                    for (final Job job : batch) {
+                        
+                        try {
+                            
+                            final DownloadResult stored = Blaspheme.installStoredFile(this.store, job.file, this.dirs.apply(job.file));
+                            
+                            if (stored != null)
+                                this.complete(job, stored);
+                                
+                            else {
+                                
+                                pending.add(job);
+                                files.add(job.file);
+                            }
+                        }
+                        
+                        catch (final Exception e) {
+                            
+                            this.fail(job, e);
+                        }
+                    }
+                    
+                    if (pending.isEmpty())
+                        continue;
+                        
+                    final List<ResolvedFile> resolved;
+                    
+                    try {
+                        
+                        resolved = DownloadEngine.this.resolve(this.modSource, files, true);
+                    }
+                    
+                    catch (final Exception e) {
+                        
+                        for (final Job job : pending)
+                            this.fail(job, e);
+                            
+                        continue;
+                    }
+                    
+                    for (int index = 0; index < pending.size(); index++) {
+                        
+                        final Job job = pending.get(index);
+                        job.resolved = resolved.get(index);
+                        
+                        if (this.checkResolved(job)) {
+                            
+                            this.transferSlots.acquire();
+                            this.transferQueue.put(job);
+                        }
+                    }
+                }
+            }
+            
+            finally {
+                
+                if (this.activeResolvers.decrementAndGet() == 0)
+                    for (int worker = 0; worker < DownloadEngine.this.transferWorkers; worker++)
+                        this.transferQueue.put(END);
+            }
+        }
+        
+        /**
+         * Worker loop for the transfer stage. Files are downloaded into the mod store when
+         * there is one, or straight into the mods directory otherwise.
+         */
+        private void transferStage () throws InterruptedException {
+            
+            BandwidthLimiter.Share.setCurrent(this.share);
+            
+            try {
+                
+                Job job;
+                
+                while ((job = this.transferQueue.take()) != END) {
+                    
+                    this.transferSlots.release();
+                    
+                    try {
+                        
+                        final ModStore store = this.store;
+                        job.stored = store != null ? store.get(job.file.projectID, job.file.fileID) : null;
+                        
+                        if (job.stored == null && store != null) {
+                            
+                            // Another install may have stored the file while waiting for the claim.
+                            this.claim(job);
+                            job.stored = store.get(job.file.projectID, job.file.fileID);
+                            
+                            if (job.stored != null)
+                                this.release(job);
+                        }
+                        
+                        if (job.stored == null) {
+                            
+                            job.target = store != null ? store.getDownloadFile(job.file) : Blaspheme.getModFile(this.dirs.apply(job.file), job.resolved.getFileName());
+                            
+                            try {
+                                
+                                job.hash = DownloadEngine.this.transfer(job.resolved, job.target, this.tracker);
+                            }
+                            
+                            catch (final IOException e) {
+                                
+                                if (!job.resolved.isCached() || e instanceof InterruptedIOException)
+                                    throw e;
+                                    
+                                Blaspheme.LOGGER.log(Level.WARNING, "Cached location for " + job.file + " failed, resolving it again.");
+                                job.resolved = DownloadEngine.this.resolve(this.modSource, Collections.singletonList(job.file), false).get(0);
+                                job.hash = DownloadEngine.this.transfer(job.resolved, job.target, this.tracker);
+                            }
+                            
+                            final RedirectCache cache = Blaspheme.getRedirectCache();
+                            
+                            if (cache != null && job.size != job.target.length())
+                                cache.put(RedirectCache.sizeKey(job.file.projectID, job.file.fileID), Long.toString(job.target.length()));
+                        }
+                    }
+                    
+                    catch (final Exception e) {
+                        
+                        this.release(job);
+                        this.fail(job, e);
+                        continue;
+                    }
+                    
+                    this.verifyQueue.put(job);
+                }
+            }
+            
+            finally {
+                
+                BandwidthLimiter.Share.setCurrent(null);
+                
+                if (this.activeTransfers.decrementAndGet() == 0)
+                    for (int worker = 0; worker < DownloadEngine.this.verifyWorkers; worker++)
+                        this.verifyQueue.put(END);
+            }
+        }
+        
+        /**
+         * Worker loop for the verify stage. Downloaded files are added to the mod store under
+         * the hash taken while they streamed in, and stored files are linked into the mods
+         * directory.
+         */
+        private void verifyStage () throws InterruptedException {
+            
+            Job job;
+            
+            while ((job = this.verifyQueue.take()) != END) {
+                
+                try {
+                    
+                    final ModStore store = this.store;
+                    DownloadResult.Status status = DownloadResult.Status.DOWNLOADED;
+                    
+                    if (store != null) {
+                        
+                        if (job.stored == null) {
+                            
+                            try {
+                                
+                                job.stored = store.add(job.file.projectID, job.file.fileID, job.resolved.getFileName(), job.target, job.hash);
+                            }
+                            
+                            finally {
+                                
+                                job.target.delete();
+                                this.release(job);
+                            }
+                        }
+                        
+                        else
+                            status = DownloadResult.Status.STORED;
+                            
+                        store.install(job.stored, Blaspheme.getModFile(this.dirs.apply(job.file), job.resolved.getFileName()));
+                        job.hash = job.stored.getHash();
+                    }
+                    
+                    this.complete(job, new DownloadResult(job.file, status, job.resolved.getFileName(), null, job.hash));
+                }
+                
+                catch (final Exception e) {
+                    
+                    this.release(job);
+                    this.fail(job, e);
+                }
+            }
+        }
+        
+        /**
+         * Claims the temporary store file of a job, waiting while another install is
+         * downloading the same file.
+         * 
+         * @param job The job to claim the file for.
+         */
+        private void claim (Job job) throws IOException {
+            
+            this.store.claimDownload(job.file);
+            this.claimed.add(job);
+        }
+        
+        /**
+         * Releases the temporary store file of a job, if the job holds it.
+         * 
+         * @param job The job to release the file for.
+         */
+        private void release (Job job) {
+            
+            if (this.claimed.remove(job))
+                this.store.releaseDownload(job.file);
+        }
+        
+        /**
+         * Releases every claim still held, for jobs which were left in a queue when the run
+         * was interrupted.
+         */
+        private void releaseAll () {
+            
+            for (final Job job : new ArrayList<>(this.claimed))
+                this.release(job);
+        }
+        
+        /**
+         * Finishes a resolved job if it does not need to be transferred. Files which are
+         * missing from the source, or which are already installed, are finished here.
+         * 
+         * @param job The resolved job.
+         * @return Whether or not the job still needs to be transferred.
+         */
+        private boolean checkResolved (Job job) {
+            
+            try {
+                
+                this.tracker.resolved(job.file, job.resolved);
+                
+                if (job.resolved.isMissing()) {
+                    
+                    this.complete(job, new DownloadResult(job.file, Blaspheme.downloadResolvedFile(job.resolved, this.dirs.apply(job.file)), job.resolved.getFileName(), null));
+                    return false;
+                }
+                
+                final File modFile = Blaspheme.getModFile(this.dirs.apply(job.file), job.resolved.getFileName());
+                
+                if (modFile.exists()) {
+                    
+                    final String hash = Hashes.hashFile(modFile);
+                    Blaspheme.LOGGER.log(Level.FINE, "The mod " + job.resolved.getFileName() + " already exists. It will not be downloaded");
+                    this.complete(job, new DownloadResult(job.file, DownloadResult.Status.EXISTING, job.resolved.getFileName(), null, hash));
+                    return false;
+                }
+                
+                job.size = DownloadEngine.this.getSize(job.resolved);
+                return true;
+            }
+            
+            catch (final Exception e) {
+                
+                this.fail(job, e);
+                return false;
+            }
+        }
+        
+        /**
+         * Takes the next batch of manifest entries from the source. Batches are as large as
+         * the mod source can resolve at once.
+         * 
+         * @return The jobs for the batch, or an empty list if there are no more entries or the
+         *         worker was interrupted.
+         */
+        private List<Job> nextBatch () {
+            
+            if (Thread.currentThread().isInterrupted())
+                return Collections.emptyList();
+                
+            final int size = Math.max(1, this.modSource.getBatchSize());
+            final List<Job> batch = new ArrayList<>();
+            Job job;
+            
+            while (batch.size() < size && (job = this.nextJob()) != null)
+                batch.add(job);
+                
+            return batch;
+        }
+        
+        /**
+         * Takes the next manifest entry from the source. Optional entries are skipped or held
+         * back until the source runs out, depending on how optional files are handled. If the
+         * source fails, no more entries are taken and the error is kept for the caller.
+         * 
+         * @return The job for the next entry, or null if there are no more.
+         */
+        private Job nextJob () {
+            
+            synchronized (this.source) {
+                
+                while (!this.exhausted) {
+                    
+                    final Manifest.FileData file;
+                    
+                    try {
+                        
+                        file = this.source.next();
+                    }
+                    
+                    catch (final IOException e) {
+                        
+                        Blaspheme.LOGGER.log(Level.SEVERE, "Failed to read the manifest", e);
+                        this.sourceError = e;
+                        this.exhausted = true;
+                        break;
+                    }
+                    
+                    if (file == null) {
+                        
+                        this.exhausted = true;
+                        break;
+                    }
+                    
+                    if (this.streaming)
+                        this.tracker.queued(file);
+                        
+                    final int index = this.next++;
+                    final Job job = new Job(this.order != null ? this.order.get(index) : index, file);
+                    
+                    if (file.required || this.optionalFiles == OptionalFiles.INCLUDE)
+                        return job;
+                        
+                    if (this.optionalFiles == OptionalFiles.DEFER)
+                        this.deferred.add(job);
+                        
+                    else {
+                        
+                        Blaspheme.LOGGER.log(Level.FINE, "Skipping optional file " + file);
+                        this.complete(job, new DownloadResult(file, DownloadResult.Status.SKIPPED, null, null));
+                    }
+                }
+                
+                return this.deferred.poll();
+            }
+        }
+        
+        /**
+         * Records the result of a finished job.
+         * 
+         * @param job The job which finished.
+         * @param result The result of the job.
+         */
+        private void complete (Job job, DownloadResult result) {
+            
+            synchronized (this.results) {
+                
+                while (this.results.size() <= job.index)
+                    this.results.add(null);
+                    
+                this.results.set(job.index, result);
+            }
+            
+            this.tracker.completed(result);
+        }
+        
+        /**
+         * Records a failed job. Errors are captured in the result instead of being thrown.
+         * 
+         * @param job The job which failed.
+         * @param error The error which caused the failure.
+         */
+        private void fail (Job job, Exception error) {
+            
+            if (error instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+                
+            Blaspheme.LOGGER.log(Level.SEVERE, "Failed to download " + job.file, error);
+            this.complete(job, new DownloadResult(job.file, DownloadResult.Status.FAILED, job.resolved != null ? job.resolved.getFileName() : null, error));
+        }
+        
+        /**
+         * Gets the results for every manifest entry, in manifest order.
+         * 
+         * @return The results of the run.
+         */
+        private List<DownloadResult> getResults () {
+            
+            synchronized (this.results) {
+                
+                return new ArrayList<>(this.results);
+            }
+        }
+    }
+    
+    /**
+     * A single manifest entry as it moves through the pipeline.
+     */
+    private static class Job {
+        
+        /**
+         * The position of the entry in the manifest.
+         */
+        private final int index;
+        
+        /**
+         * The manifest entry being downloaded.
+         */
+        private final Manifest.FileData file;
+        
+        /**
+         * The resolved download location. Set by the resolve stage.
+         */
+        private ResolvedFile resolved;
+        
+        /**
+         * The file the bytes were downloaded to. Set by the transfer stage.
+         */
+        private File target;
+        
+        /**
+         * The SHA-1 hash of the downloaded file. Set by the transfer stage.
+         */
+        private String hash;
+        
+        /**
+         * The mod store entry for the file, if the store already had it.
+         */
+        private ModStore.Entry stored;
+        
+        /**
+         * The size of the file in bytes, or -1 if it is not known. Set by the resolve stage.
+         */
+        private long size = -1;
+        
+        public Job(int index, Manifest.FileData file) {
+            
+            this.index = index;
+            this.file = file;
+        }
+    }
+    
+    /**
+     * Thread factory for the worker threads. Workers are daemon threads, so they will not
+     * keep an application open.
+     */
+    private static class WorkerFactory implements ThreadFactory {
+        
+        /**
+         * Counter used to give each worker a unique name.
+         */
+        private final AtomicInteger count = new AtomicInteger();
+        
+        @Override
+        public Thread newThread (Runnable runnable) {
+            
+            final Thread thread = new Thread(runnable, "Blaspheme Download " + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,56 @@
+package net.darkhax.blaspheme;
+
+/**
+ * Receives events from the download pipeline. Events are sent from the worker threads, so
+ * listeners should return quickly and hand any heavy work, such as updating a GUI, to another
+ * thread. Byte level progress is never sent directly, it is coalesced into
+ * {@link #onProgress(DownloadProgress)} which is sent at most once per progress interval.
+ */
+public interface DownloadListener {
+    
+    /**
+     * Called when a file is queued for download.
+     * 
+     * @param file The manifest entry which was queued.
+     */
+    default void onQueued (Manifest.FileData file) {
+        
+    }
+    
+    /**
+     * Called when the download location of a file has been resolved.
+     * 
+     * @param file The manifest entry which was resolved.
+     * @param resolved The resolved download location.
+     */
+    default void onResolved (Manifest.FileData file, ResolvedFile resolved) {
+        
+    }
+    
+    /**
+     * Called when a file has finished, whether it was downloaded, skipped or failed.
+     * 
+     * @param result The result for the file.
+     */
+    default void onCompleted (DownloadResult result) {
+        
+    }
+    
+    /**
+     * Called periodically with the overall progress of the downloads.
+     * 
+     * @param progress A snapshot of the current progress.
+     */
+    default void onProgress (DownloadProgress progress) {
+        
+    }
+    
+    /**
+     * Called once every file has finished.
+     * 
+     * @param report The report of all the downloads.
+     */
+    default void onFinished (DownloadReport report) {
+        
+    }
+}
\ No newline at end of file
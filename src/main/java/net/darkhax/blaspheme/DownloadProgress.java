@@ -0,0 +1,150 @@
+package net.darkhax.blaspheme;
+
+/**
+ * A snapshot of the overall progress of a set of downloads.
+ */
+public class DownloadProgress {
+    
+    /**
+     * The amount of files being downloaded.
+     */
+    private final int totalFiles;
+    
+    /**
+     * The amount of files which have finished, including failed files.
+     */
+    private final int completedFiles;
+    
+    /**
+     * The amount of files which failed.
+     */
+    private final int failedFiles;
+    
+    /**
+     * The amount of bytes transferred so far.
+     */
+    private final long bytes;
+    
+    /**
+     * The time since the downloads started, in milliseconds.
+     */
+    private final long elapsed;
+    
+    /**
+     * The recent transfer rate, in bytes per second.
+     */
+    private final double bytesPerSecond;
+    
+    public DownloadProgress(int totalFiles, int completedFiles, int failedFiles, long bytes, long elapsed, double bytesPerSecond) {
+        
+        this.totalFiles = totalFiles;
+        this.completedFiles = completedFiles;
+        this.failedFiles = failedFiles;
+        this.bytes = bytes;
+        this.elapsed = elapsed;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+    
+    /**
+     * Gets the amount of files being downloaded.
+     * 
+     * @return The total amount of files.
+     */
+    public int getTotalFiles () {
+        
+        return this.totalFiles;
+    }
+    
+    /**
+     * Gets the amount of files which have finished, including failed files.
+     * 
+     * @return The amount of finished files.
+     */
+    public int getCompletedFiles () {
+        
+        return this.completedFiles;
+    }
+    
+    /**
+     * Gets the amount of files which failed.
+     * 
+     * @return The amount of failed files.
+     */
+    public int getFailedFiles () {
+        
+        return this.failedFiles;
+    }
+    
+    /**
+     * Gets the amount of bytes transferred so far.
+     * 
+     * @return The transferred bytes.
+     */
+    public long getBytes () {
+        
+        return this.bytes;
+    }
+    
+    /**
+     * Gets the time since the downloads started.
+     * 
+     * @return The elapsed time in milliseconds.
+     */
+    public long getElapsed () {
+        
+        return this.elapsed;
+    }
+    
+    /**
+     * Gets the recent transfer rate. This is smoothed over the last few progress updates.
+     * 
+     * @return The transfer rate in bytes per second.
+     */
+    public double getBytesPerSecond () {
+        
+        return this.bytesPerSecond;
+    }
+    
+    /**
+     * Gets the average rate files have finished at since the downloads started.
+     * 
+     * @return The rate in files per second.
+     */
+    public double getFilesPerSecond () {
+        
+        return this.elapsed > 0 ? this.completedFiles * 1000d / this.elapsed : 0;
+    }
+    
+    /**
+     * Gets the fraction of files which have finished.
+     * 
+     * @return A value from 0 to 1.
+     */
+    public double getFraction () {
+        
+        return this.totalFiles > 0 ? (double) this.completedFiles / this.totalFiles : 1;
+    }
+    
+    /**
+     * Estimates the time until every file has finished, based on the rate files have finished
+     * at so far.
+     * 
+     * @return The estimated time in milliseconds, or -1 if it can not be estimated yet.
+     */
+    public long getEta () {
+        
+        final double filesPerSecond = this.getFilesPerSecond();
+        
+        if (filesPerSecond <= 0)
+            return -1;
+            
+        return (long) ((this.totalFiles - this.completedFiles) * 1000d / filesPerSecond);
+    }
+    
+    @Override
+    public String toString () {
+        
+        final long eta = this.getEta();
+        return String.format("%d/%d files, %.1f MB at %.1f MB/s, %s remaining", this.completedFiles, this.totalFiles, this.bytes / 1048576d, this.bytesPerSecond / 1048576d, eta < 0 ? "unknown" : eta / 1000 + "s");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An aggregate report of all the downloads for a manifest.
+ */
+public class DownloadReport {
+    
+    /**
+     * The results for every file, in manifest order.
+     */
+    private final List<DownloadResult> results;
+    
+    /**
+     * The time in milliseconds it took to download all the files.
+     */
+    private final long timeTaken;
+    
+    public DownloadReport(List<DownloadResult> results, long timeTaken) {
+        
+        this.results = Collections.unmodifiableList(new ArrayList<>(results));
+        this.timeTaken = timeTaken;
+    }
+    
+    /**
+     * Gets the results for every file.
+     * 
+     * @return An unmodifiable list of all results.
+     */
+    public List<DownloadResult> getResults () {
+        
+        return this.results;
+    }
+    
+    /**
+     * Gets the results with a specific status.
+     * 
+     * @param status The status to look for.
+     * @return A list of all results with that status.
+     */
+    public List<DownloadResult> getResults (DownloadResult.Status status) {
+        
+        final List<DownloadResult> matches = new ArrayList<>();
+        
+        for (final DownloadResult result : this.results)
+            if (result.getStatus() == status)
+                matches.add(result);
+        
+        return matches;
+    }
+    
+    /**
+     * Gets the results for all downloads which failed.
+     * 
+     * @return A list of all failed results.
+     */
+    public List<DownloadResult> getFailures () {
+        
+        return this.getResults(DownloadResult.Status.FAILED);
+    }
+    
+    /**
+     * Checks if every file was handled without an error. Missing files do not count as
+     * failures, as there is nothing that can be done about them.
+     * 
+     * @return Whether or not all downloads succeeded.
+     */
+    public boolean isSuccessful () {
+        
+        for (final DownloadResult result : this.results)
+            if (result.isFailed())
+                return false;
+        
+        return true;
+    }
+    
+    /**
+     * Throws an exception if any of the downloads failed. The errors of the failed downloads
+     * are added to the exception as suppressed exceptions.
+     * 
+     * @throws IOException If any download failed.
+     */
+    public void throwIfFailed () throws IOException {
+        
+        final List<DownloadResult> failures = this.getFailures();
+        
+        if (failures.isEmpty())
+            return;
+            
+        final IOException exception = new IOException(failures.size() + " of " + this.results.size() + " files failed to download");
+        
+        for (final DownloadResult failure : failures)
+            exception.addSuppressed(failure.getError());
+            
+        throw exception;
+    }
+    
+    /**
+     * Gets the time it took to download all the files.
+     * 
+     * @return The time taken in milliseconds.
+     */
+    public long getTimeTaken () {
+        
+        return this.timeTaken;
+    }
+    
+    @Override
+    public String toString () {
+        
+        return this.getResults(DownloadResult.Status.DOWNLOADED).size() + " downloaded, " + this.getResults(DownloadResult.Status.EXISTING).size() + " existing, " + this.getResults(DownloadResult.Status.STORED).size() + " from store, " + this.getResults(DownloadResult.Status.MISSING).size() + " missing, " + this.getResults(DownloadResult.Status.SKIPPED).size() + " skipped, " + this.getFailures().size() + " failed in " + this.timeTaken + "ms";
+    }
+}
\ No newline at end of file
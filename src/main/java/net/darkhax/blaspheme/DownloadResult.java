@@ -0,0 +1,159 @@
+package net.darkhax.blaspheme;
+
+/**
+ * The outcome of downloading a single manifest entry.
+ */
+public class DownloadResult {
+    
+    /**
+     * The manifest entry that was downloaded.
+     */
+    private final Manifest.FileData file;
+    
+    /**
+     * The outcome of the download.
+     */
+    private final Status status;
+    
+    /**
+     * The name of the file, if it could be resolved.
+     */
+    private final String fileName;
+    
+    /**
+     * The error that caused the download to fail. Only set for failed downloads.
+     */
+    private final Throwable error;
+    
+    /**
+     * The SHA-1 hash of the installed file, if it is known.
+     */
+    private final String hash;
+    
+    public DownloadResult(Manifest.FileData file, Status status, String fileName, Throwable error) {
+        
+        this(file, status, fileName, error, null);
+    }
+    
+    public DownloadResult(Manifest.FileData file, Status status, String fileName, Throwable error, String hash) {
+        
+        this.file = file;
+        this.status = status;
+        this.fileName = fileName;
+        this.error = error;
+        this.hash = hash;
+    }
+    
+    /**
+     * Gets the manifest entry that was downloaded.
+     * 
+     * @return The manifest entry.
+     */
+    public Manifest.FileData getFile () {
+        
+        return this.file;
+    }
+    
+    /**
+     * Gets the outcome of the download.
+     * 
+     * @return The outcome of the download.
+     */
+    public Status getStatus () {
+        
+        return this.status;
+    }
+    
+    /**
+     * Gets the name of the file. This will be null if the file could not be resolved.
+     * 
+     * @return The name of the file.
+     */
+    public String getFileName () {
+        
+        return this.fileName;
+    }
+    
+    /**
+     * Gets the error which caused the download to fail.
+     * 
+     * @return The error, or null if the download did not fail.
+     */
+    public Throwable getError () {
+        
+        return this.error;
+    }
+    
+    /**
+     * Gets the SHA-1 hash of the installed file.
+     * 
+     * @return The hash, or null if it is not known.
+     */
+    public String getHash () {
+        
+        return this.hash;
+    }
+    
+    /**
+     * Checks if the download failed.
+     * 
+     * @return Whether or not the download failed.
+     */
+    public boolean isFailed () {
+        
+        return this.status == Status.FAILED;
+    }
+    
+    /**
+     * Checks if the file is in the mods folder after the download. Files which failed, are
+     * missing, or were skipped are not installed.
+     * 
+     * @return Whether or not the file is installed.
+     */
+    public boolean isInstalled () {
+        
+        return this.status != Status.FAILED && this.status != Status.MISSING && this.status != Status.SKIPPED;
+    }
+    
+    @Override
+    public String toString () {
+        
+        return this.file + " " + this.status + (this.fileName != null ? " (" + this.fileName + ")" : "") + (this.error != null ? ": " + this.error : "");
+    }
+    
+    /**
+     * The possible outcomes of a download.
+     */
+    public enum Status {
+        
+        /**
+         * The file was downloaded.
+         */
+        DOWNLOADED,
+        
+        /**
+         * The file already existed, and was not downloaded again.
+         */
+        EXISTING,
+        
+        /**
+         * The file was installed from the mod store, without being downloaded.
+         */
+        STORED,
+        
+        /**
+         * The file is no longer available on curse, and was skipped.
+         */
+        MISSING,
+        
+        /**
+         * The file is optional, and was skipped.
+         */
+        SKIPPED,
+        
+        /**
+         * The file could not be downloaded.
+         */
+        FAILED
+    }
+}
\ No newline at end of file
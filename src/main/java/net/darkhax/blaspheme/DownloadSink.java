@@ -0,0 +1,19 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A destination for downloaded bytes. Sinks are fed by {@link Transfer}, and can be used to
+ * write downloads to places other than a file, or to inspect the bytes as they arrive.
+ */
+public interface DownloadSink {
+    
+    /**
+     * Writes all of the remaining bytes in a buffer. The buffer is reused once this returns,
+     * so it must not be held on to.
+     * 
+     * @param buffer The buffer to write.
+     */
+    void write (ByteBuffer buffer) throws IOException;
+}
\ No newline at end of file
@@ -0,0 +1,45 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A sink which writes to a file channel at a specific position. Positional writes allow
+ * several sinks to write to different parts of the same channel at once.
+ */
+public class FileSink implements DownloadSink {
+    
+    /**
+     * The channel to write to.
+     */
+    private final FileChannel channel;
+    
+    /**
+     * The position the next write will start at.
+     */
+    private long position;
+    
+    public FileSink(FileChannel channel, long position) {
+        
+        this.channel = channel;
+        this.position = position;
+    }
+    
+    @Override
+    public void write (ByteBuffer buffer) throws IOException {
+        
+        while (buffer.hasRemaining())
+            this.position += this.channel.write(buffer, this.position);
+    }
+    
+    /**
+     * Gets the position the next write will start at.
+     * 
+     * @return The current position.
+     */
+    public long getPosition () {
+        
+        return this.position;
+    }
+}
\ No newline at end of file
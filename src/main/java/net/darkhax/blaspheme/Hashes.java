@@ -0,0 +1,122 @@
+package net.darkhax.blaspheme;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Helpers for the SHA-1 hashes used to identify and verify mod files, and the CRC-32
+ * checksums used to compare overrides.
+ */
+public final class Hashes {
+    
+    private Hashes() {
+        
+    }
+    
+    /**
+     * Creates a new SHA-1 digest.
+     * 
+     * @return A new digest.
+     */
+    public static MessageDigest sha1 () {
+        
+        try {
+            
+            return MessageDigest.getInstance("SHA-1");
+        }
+        
+        catch (final NoSuchAlgorithmException e) {
+            
+            // Every Java platform is required to support SHA-1.
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Adds the contents of a file to a digest.
+     * 
+     * @param digest The digest to update.
+     * @param file The file to read.
+     */
+    public static void update (MessageDigest digest, File file) throws IOException {
+        
+        try (InputStream stream = new FileInputStream(file)) {
+            
+            final byte[] buff = new byte[65536];
+            
+            int i;
+            
+            while ((i = stream.read(buff)) > 0)
+                digest.update(buff, 0, i);
+        }
+    }
+    
+    /**
+     * Calculates the SHA-1 hash of a file.
+     * 
+     * @param file The file to hash.
+     * @return The hash as a lower case hex string.
+     */
+    public static String hashFile (File file) throws IOException {
+        
+        final MessageDigest digest = sha1();
+        update(digest, file);
+        return toHex(digest.digest());
+    }
+    
+    /**
+     * Calculates the CRC-32 of a file. This is the checksum zip files store for each entry,
+     * so a file can be compared with an entry without reading the entry.
+     * 
+     * @param file The file to check.
+     * @return The checksum as a lower case hex string.
+     */
+    public static String crcFile (File file) throws IOException {
+        
+        final CRC32 crc = new CRC32();
+        
+        try (InputStream stream = new FileInputStream(file)) {
+            
+            final byte[] buff = new byte[65536];
+            
+            int i;
+            
+            while ((i = stream.read(buff)) > 0)
+                crc.update(buff, 0, i);
+        }
+        
+        return crcToHex(crc.getValue());
+    }
+    
+    /**
+     * Converts a CRC-32 checksum to a lower case hex string.
+     * 
+     * @param crc The checksum.
+     * @return The checksum as a hex string.
+     */
+    public static String crcToHex (long crc) {
+        
+        return String.format("%08x", crc);
+    }
+    
+    /**
+     * Converts a hash to a lower case hex string.
+     * 
+     * @param hash The bytes of the hash.
+     * @return The hash as a hex string.
+     */
+    public static String toHex (byte[] hash) {
+        
+        final StringBuilder builder = new StringBuilder(hash.length * 2);
+        
+        for (final byte b : hash)
+            builder.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            
+        return builder.toString();
+    }
+}
\ No newline at end of file
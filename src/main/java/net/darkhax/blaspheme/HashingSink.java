@@ -0,0 +1,40 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * A sink which hashes bytes on their way to another sink, so a download is hashed while it
+ * streams in rather than being read back afterwards.
+ */
+public class HashingSink implements DownloadSink {
+    
+    /**
+     * The sink the bytes are passed on to.
+     */
+    private final DownloadSink sink;
+    
+    /**
+     * The digest the bytes are added to.
+     */
+    private final MessageDigest digest;
+    
+    public HashingSink(DownloadSink sink, MessageDigest digest) {
+        
+        this.sink = sink;
+        this.digest = digest;
+    }
+    
+    @Override
+    public void write (ByteBuffer buffer) throws IOException {
+        
+        final int position = buffer.position();
+        this.sink.write(buffer);
+        
+        final ByteBuffer written = buffer.duplicate();
+        written.flip();
+        written.position(position);
+        this.digest.update(written);
+    }
+}
\ No newline at end of file
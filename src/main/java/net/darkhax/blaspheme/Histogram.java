@@ -0,0 +1,175 @@
+package net.darkhax.blaspheme;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of non negative values. Values are counted in power of two buckets,
+ * so recording is cheap enough for the download hot path, and percentiles are accurate to
+ * within a factor of two.
+ */
+public class Histogram {
+    
+    /**
+     * The amount of buckets. Bucket n holds values below 2^n, and at least 2^(n-1).
+     */
+    private static final int BUCKETS = 64;
+    
+    /**
+     * The amount of values in each bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    
+    /**
+     * The amount of recorded values.
+     */
+    private final LongAdder count = new LongAdder();
+    
+    /**
+     * The sum of all recorded values.
+     */
+    private final LongAdder sum = new LongAdder();
+    
+    /**
+     * The smallest recorded value.
+     */
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    
+    /**
+     * The largest recorded value.
+     */
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * 
+     * @param value The value to record.
+     */
+    public void record (long value) {
+        
+        final long clamped = Math.max(0, value);
+        this.buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(clamped));
+        this.count.increment();
+        this.sum.add(clamped);
+        this.min.accumulateAndGet(clamped, Math::min);
+        this.max.accumulateAndGet(clamped, Math::max);
+    }
+    
+    /**
+     * Gets the amount of recorded values.
+     * 
+     * @return The amount of values.
+     */
+    public long getCount () {
+        
+        return this.count.sum();
+    }
+    
+    /**
+     * Gets the sum of all recorded values.
+     * 
+     * @return The sum of the values.
+     */
+    public long getSum () {
+        
+        return this.sum.sum();
+    }
+    
+    /**
+     * Gets the smallest recorded value.
+     * 
+     * @return The smallest value, or 0 if nothing was recorded.
+     */
+    public long getMin () {
+        
+        return this.getCount() == 0 ? 0 : this.min.get();
+    }
+    
+    /**
+     * Gets the largest recorded value.
+     * 
+     * @return The largest value, or 0 if nothing was recorded.
+     */
+    public long getMax () {
+        
+        return this.getCount() == 0 ? 0 : this.max.get();
+    }
+    
+    /**
+     * Gets the mean of the recorded values.
+     * 
+     * @return The mean, or 0 if nothing was recorded.
+     */
+    public double getMean () {
+        
+        final long count = this.getCount();
+        return count == 0 ? 0 : (double) this.getSum() / count;
+    }
+    
+    /**
+     * Estimates a percentile of the recorded values. The result is the upper bound of the
+     * bucket the percentile falls in, capped to the largest recorded value.
+     * 
+     * @param percentile The percentile, from 0 to 100.
+     * @return The estimated value, or 0 if nothing was recorded.
+     */
+    public long getPercentile (double percentile) {
+        
+        long total = 0;
+        
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+            total += this.buckets.get(bucket);
+            
+        if (total == 0)
+            return 0;
+            
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100d));
+        long seen = 0;
+        
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            
+            seen += this.buckets.get(bucket);
+            
+            if (seen >= rank)
+                return Math.min((1L << bucket) - 1, this.getMax());
+        }
+        
+        return this.getMax();
+    }
+    
+    /**
+     * Clears all recorded values.
+     */
+    public void reset () {
+        
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+            this.buckets.set(bucket, 0);
+            
+        this.count.reset();
+        this.sum.reset();
+        this.min.set(Long.MAX_VALUE);
+        this.max.set(Long.MIN_VALUE);
+    }
+    
+    /**
+     * Creates a summary of the histogram, for exporting.
+     * 
+     * @return A map of statistic names to values.
+     */
+    public Map<String, Object> toSummary () {
+        
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", this.getCount());
+        summary.put("sum", this.getSum());
+        summary.put("min", this.getMin());
+        summary.put("mean", Math.round(this.getMean() * 100) / 100d);
+        summary.put("p50", this.getPercentile(50));
+        summary.put("p90", this.getPercentile(90));
+        summary.put("p99", this.getPercentile(99));
+        summary.put("max", this.getMax());
+        return summary;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,265 @@
+package net.darkhax.blaspheme;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many connections can be open to a single host at once. This keeps parallel
+ * downloads from hammering curse or its CDN. The limit for each host adapts to how the host
+ * responds: it grows slowly while requests succeed quickly, and is halved when the host rate
+ * limits or fails. A host which sends a Retry-After header gets no new requests until that
+ * time has passed.
+ */
+public class HostLimiter {
+    
+    /**
+     * The minimum time between two decreases of the limit for a host, in nanoseconds. This
+     * keeps a burst of failures from requests already in flight from collapsing the limit.
+     */
+    private static final long DECREASE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    
+    /**
+     * How much slower than usual a request can be before the limit stops growing.
+     */
+    private static final double LATENCY_TOLERANCE = 2;
+    
+    /**
+     * The limiter which requests running on the current thread hold a slot from.
+     */
+    private static final ThreadLocal<HostLimiter> CURRENT = new ThreadLocal<>();
+    
+    /**
+     * The highest amount of connections allowed per host.
+     */
+    private final int limit;
+    
+    /**
+     * Map of host names to the state of that host.
+     */
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    
+    public HostLimiter(int limit) {
+        
+        if (limit < 1)
+            throw new IllegalArgumentException("Host limit must be at least 1");
+            
+        this.limit = limit;
+    }
+    
+    /**
+     * Gets the highest amount of connections allowed per host.
+     * 
+     * @return The per host limit.
+     */
+    public int getLimit () {
+        
+        return this.limit;
+    }
+    
+    /**
+     * Gets the amount of connections currently allowed to the host of a URL.
+     * 
+     * @param url The URL to check.
+     * @return The current limit for the host.
+     */
+    public int getLimit (URL url) {
+        
+        return this.getHost(url).getWindow();
+    }
+    
+    /**
+     * Waits for a connection slot to the host of a URL. Every call must be paired with a call
+     * to {@link #release(URL)}.
+     * 
+     * @param url The URL which will be connected to.
+     */
+    public void acquire (URL url) throws InterruptedException {
+        
+        this.getHost(url).acquire();
+    }
+    
+    /**
+     * Takes a connection slot to the host of a URL if one is free, without waiting. A
+     * successful call must be paired with a call to {@link #release(URL)}.
+     * 
+     * @param url The URL which will be connected to.
+     * @return Whether a slot was taken.
+     */
+    public boolean tryAcquire (URL url) {
+        
+        return this.getHost(url).tryAcquire();
+    }
+    
+    /**
+     * Releases a connection slot for the host of a URL.
+     * 
+     * @param url The URL which was connected to.
+     */
+    public void release (URL url) {
+        
+        this.getHost(url).release();
+    }
+    
+    /**
+     * Reports a successful request, which lets the limit for the host grow.
+     * 
+     * @param url The URL which was requested.
+     * @param latency How long the request took in nanoseconds, or -1 if it is not known.
+     */
+    public void onSuccess (URL url, long latency) {
+        
+        this.getHost(url).success(latency);
+    }
+    
+    /**
+     * Reports a request which was rate limited or hit a server error. The limit for the host
+     * is halved, and the host is paused for the delay it asked for.
+     * 
+     * @param url The URL which was requested.
+     * @param retryAfter The delay asked for by the host in milliseconds, or 0.
+     */
+    public void onThrottle (URL url, long retryAfter) {
+        
+        this.getHost(url).throttle(retryAfter);
+    }
+    
+    /**
+     * Gets the limiter which the request running on the current thread holds a slot from.
+     * 
+     * @return The limiter of the current thread, or null.
+     */
+    static HostLimiter current () {
+        
+        return CURRENT.get();
+    }
+    
+    /**
+     * Sets the limiter which the request running on the current thread holds a slot from.
+     * 
+     * @param limiter The limiter, or null to clear it.
+     */
+    static void setCurrent (HostLimiter limiter) {
+        
+        if (limiter == null)
+            CURRENT.remove();
+        
+        else
+            CURRENT.set(limiter);
+    }
+    
+    /**
+     * Gets the state for the host of a URL.
+     * 
+     * @param url The URL to get the host for.
+     * @return The state of the host.
+     */
+    private Host getHost (URL url) {
+        
+        return this.hosts.computeIfAbsent(url.getHost().toLowerCase(), host -> new Host());
+    }
+    
+    /**
+     * The connection slots and limit for a single host.
+     */
+    private class Host {
+        
+        /**
+         * The amount of connections allowed. Fractional, so the limit can grow by one for
+         * every full window of successful requests.
+         */
+        private double window = HostLimiter.this.limit;
+        
+        /**
+         * The amount of connections currently open.
+         */
+        private int inFlight;
+        
+        /**
+         * The time no new requests should be sent before, from {@link System#nanoTime()}.
+         */
+        private long pausedUntil = System.nanoTime();
+        
+        /**
+         * The time the limit was last decreased, from {@link System#nanoTime()}.
+         */
+        private long lastDecrease = System.nanoTime() - DECREASE_INTERVAL;
+        
+        /**
+         * The smoothed latency of successful requests in nanoseconds, or 0 if there are none.
+         */
+        private double latency;
+        
+        private synchronized int getWindow () {
+            
+            return (int) this.window;
+        }
+        
+        private synchronized void acquire () throws InterruptedException {
+            
+            while (true) {
+                
+                final long pause = this.pausedUntil - System.nanoTime();
+                
+                if (pause > 0)
+                    TimeUnit.NANOSECONDS.timedWait(this, pause);
+                    
+                else if (this.inFlight >= (int) this.window)
+                    this.wait();
+                    
+                else
+                    break;
+            }
+            
+            this.inFlight++;
+        }
+        
+        private synchronized boolean tryAcquire () {
+            
+            if (this.pausedUntil - System.nanoTime() > 0 || this.inFlight >= (int) this.window)
+                return false;
+                
+            this.inFlight++;
+            return true;
+        }
+        
+        private synchronized void release () {
+            
+            this.inFlight--;
+            this.notifyAll();
+        }
+        
+        private synchronized void success (long sample) {
+            
+            if (sample >= 0) {
+                
+                final boolean slow = this.latency > 0 && sample > this.latency * LATENCY_TOLERANCE;
+                this.latency = this.latency == 0 ? sample : this.latency * 0.8 + sample * 0.2;
+                
+                if (slow)
+                    return;
+            }
+            
+            final int before = (int) this.window;
+            this.window = Math.min(HostLimiter.this.limit, this.window + 1 / this.window);
+            
+            if ((int) this.window > before)
+                this.notifyAll();
+        }
+        
+        private synchronized void throttle (long retryAfter) {
+            
+            final long now = System.nanoTime();
+            
+            if (now - this.lastDecrease >= DECREASE_INTERVAL) {
+                
+                this.window = Math.max(1, this.window / 2);
+                this.lastDecrease = now;
+            }
+            
+            if (retryAfter > 0)
+                this.pausedUntil = Math.max(this.pausedUntil, now + TimeUnit.MILLISECONDS.toNanos(retryAfter));
+        }
+    }
+}
\ No newline at end of file
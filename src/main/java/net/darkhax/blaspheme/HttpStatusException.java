@@ -0,0 +1,119 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Thrown when a server replies with an error status. Rate limit and server errors are marked
+ * as retryable, and carry the delay the server asked for through its Retry-After header.
+ */
+public class HttpStatusException extends IOException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * The status code sent by the server.
+     */
+    private final int status;
+    
+    /**
+     * The delay asked for by the server in milliseconds, or 0 if there was none.
+     */
+    private final long retryAfter;
+    
+    public HttpStatusException(String message, int status, long retryAfter) {
+        
+        super(message);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+    
+    /**
+     * Creates an exception from a response.
+     * 
+     * @param response The response with an error status.
+     * @param url The URL which was requested.
+     * @return The exception for the response.
+     */
+    public static HttpStatusException from (HttpTransport.Response response, URL url) throws IOException {
+        
+        final int status = response.getStatus();
+        return new HttpStatusException("Server returned " + status + " for " + url, status, parseRetryAfter(response.getHeader("Retry-After")));
+    }
+    
+    /**
+     * Gets the status code sent by the server.
+     * 
+     * @return The status code.
+     */
+    public int getStatus () {
+        
+        return this.status;
+    }
+    
+    /**
+     * Gets the delay the server asked for before trying again.
+     * 
+     * @return The delay in milliseconds, or 0 if the server did not ask for one.
+     */
+    public long getRetryAfter () {
+        
+        return this.retryAfter;
+    }
+    
+    /**
+     * Checks if the request can be tried again later. This is the case for rate limits and
+     * server errors, but not for errors such as a missing file.
+     * 
+     * @return Whether or not the request can be retried.
+     */
+    public boolean isRetryable () {
+        
+        return isRetryable(this.status);
+    }
+    
+    /**
+     * Checks if a status code means the request can be tried again later.
+     * 
+     * @param status The status code.
+     * @return Whether or not a request with that status can be retried.
+     */
+    public static boolean isRetryable (int status) {
+        
+        return status == 429 || status >= 500;
+    }
+    
+    /**
+     * Reads a Retry-After header, which is either an amount of seconds or a date.
+     * 
+     * @param value The value of the header. Can be null.
+     * @return The delay in milliseconds, or 0 if there is no valid delay.
+     */
+    public static long parseRetryAfter (String value) {
+        
+        if (value == null || value.trim().isEmpty())
+            return 0;
+            
+        try {
+            
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        }
+        
+        catch (final NumberFormatException e) {
+            
+            try {
+                
+                final ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+            }
+            
+            catch (final DateTimeParseException ignored) {
+                
+                return 0;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+package net.darkhax.blaspheme;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * The layer every network request made by Blaspheme goes through. The default implementation
+ * is {@link UrlConnectionTransport}. Other implementations can be set with
+ * {@link Blaspheme#setHttpTransport(HttpTransport)}, for example to use a client which
+ * supports HTTP/2, or to serve requests from somewhere other than the network.
+ */
+public interface HttpTransport {
+    
+    /**
+     * Sends a request. Redirects must not be followed, as Blaspheme reads the Location header
+     * of redirect responses itself.
+     * 
+     * @param method The request method, such as GET or HEAD.
+     * @param url The URL to request.
+     * @param headers Extra request headers to send.
+     * @return The response. This must be closed once it is no longer needed, so the connection
+     *         can be reused.
+     */
+    Response send (String method, URL url, Map<String, String> headers) throws IOException;
+    
+    /**
+     * A response to a request.
+     */
+    interface Response extends Closeable {
+        
+        /**
+         * Gets the status code of the response.
+         * 
+         * @return The status code.
+         */
+        int getStatus () throws IOException;
+        
+        /**
+         * Gets the value of a response header.
+         * 
+         * @param name The name of the header.
+         * @return The value of the header, or null if it was not sent.
+         */
+        String getHeader (String name);
+        
+        /**
+         * Gets the length of the response body.
+         * 
+         * @return The length of the body in bytes, or -1 if it is not known.
+         */
+        long getContentLength ();
+        
+        /**
+         * Gets the response body.
+         * 
+         * @return A stream of the response body.
+         */
+        InputStream getBody () throws IOException;
+        
+        /**
+         * Closes the connection of the response right away. This can be called from any
+         * thread, and reads blocked on the body should fail rather than wait for a timeout.
+         * By default the response is just closed.
+         */
+        default void abort () throws IOException {
+            
+            this.close();
+        }
+    }
+}
\ No newline at end of file
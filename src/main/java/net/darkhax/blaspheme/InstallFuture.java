@@ -0,0 +1,397 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+/**
+ * A future for an install running in the background. Unlike a plain
+ * {@link CompletableFuture}, cancelling it interrupts the thread running the install, and
+ * aborts every response the install has open, so blocked reads fail right away. Cancelling
+ * does not wait. The future is completed once the install has stopped and deleted its partial
+ * files, or after a time limit if it does not stop.
+ * 
+ * @param <T> The type of the install result.
+ */
+public class InstallFuture<T> extends CompletableFuture<T> {
+    
+    /**
+     * Timer used to stop installs which take too long, and to complete stopped installs
+     * which do not clean up in time.
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        
+        final Thread thread = new Thread(runnable, "Blaspheme Install Timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * The longest time a stopped install is given to clean up before the future is completed
+     * anyway, in milliseconds. This is longer than a download engine waits for its own
+     * workers.
+     */
+    private static final long STOP_TIMEOUT = 10000;
+    
+    /**
+     * The install running on each thread.
+     */
+    private static final ThreadLocal<InstallFuture<?>> CURRENT = new ThreadLocal<>();
+    
+    /**
+     * The responses the install has open. Guarded by this future.
+     */
+    private final Set<HttpTransport.Response> responses = new HashSet<>();
+    
+    /**
+     * The thread running the install, or null if it is not running. Guarded by this future.
+     */
+    private Thread runner;
+    
+    /**
+     * Whether or not the runner has been interrupted by this future. Guarded by this future.
+     */
+    private boolean interrupted;
+    
+    /**
+     * Completes the future once a stopped install is done, or null if the install has not
+     * been stopped. Once set, the install will not start, and its own result is ignored.
+     * Guarded by this future.
+     */
+    private Runnable completion;
+    
+    /**
+     * Starts an install on an executor. The install uses the bandwidth share of the calling
+     * thread.
+     * 
+     * @param task The install to run.
+     * @param executor The executor to run the install on.
+     * @return The future for the install.
+     */
+    public static <T> InstallFuture<T> start (Callable<T> task, Executor executor) {
+        
+        final InstallFuture<T> future = new InstallFuture<>();
+        final BandwidthLimiter.Share share = BandwidthLimiter.Share.current();
+        
+        executor.execute( () -> {
+            
+            BandwidthLimiter.Share.setCurrent(share);
+            
+            try {
+                
+                future.run(task);
+            }
+            
+            finally {
+                
+                BandwidthLimiter.Share.setCurrent(null);
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * Runs the install on the current thread, unless the future was already cancelled.
+     * 
+     * @param task The install to run.
+     */
+    private void run (Callable<T> task) {
+        
+        synchronized (this) {
+            
+            if (this.isDone() || this.completion != null)
+                return;
+                
+            this.runner = Thread.currentThread();
+        }
+        
+        T result = null;
+        Throwable error = null;
+        final Runnable stopped;
+        
+        setCurrent(this);
+        
+        try {
+            
+            result = task.call();
+        }
+        
+        catch (final Throwable e) {
+            
+            error = e;
+        }
+        
+        finally {
+            
+            setCurrent(null);
+            
+            synchronized (this) {
+                
+                this.runner = null;
+                stopped = this.completion;
+                
+                // Clear the interrupt from cancelling, so it does not leak into the executor.
+                if (this.interrupted)
+                    Thread.interrupted();
+            }
+        }
+        
+        if (stopped != null)
+            stopped.run();
+            
+        else if (error != null)
+            this.completeExceptionally(error);
+            
+        else
+            this.complete(result);
+    }
+    
+    /**
+     * Cancels the install. The thread running it is interrupted and its open responses are
+     * aborted. This returns right away, and the future is cancelled once the install has
+     * cleaned up, or after a time limit.
+     * 
+     * @param mayInterruptIfRunning Ignored, the install is always interrupted.
+     * @return Whether or not the install is being cancelled by this call.
+     */
+    @Override
+    public boolean cancel (boolean mayInterruptIfRunning) {
+        
+        return this.stop( () -> InstallFuture.super.cancel(mayInterruptIfRunning));
+    }
+    
+    /**
+     * Fails the install with a {@link TimeoutException} if it has not finished within a time
+     * limit. The install is stopped the same way as when it is cancelled.
+     * 
+     * @param timeout The time limit.
+     * @param unit The unit of the time limit.
+     * @return This future.
+     */
+    public InstallFuture<T> cancelAfter (long timeout, TimeUnit unit) {
+        
+        final ScheduledFuture<?> timer = TIMER.schedule( () -> this.stop( () -> this.completeExceptionally(new TimeoutException("The install did not finish within " + timeout + " " + unit.toString().toLowerCase()))), timeout, unit);
+        
+        this.whenComplete( (result, error) -> timer.cancel(false));
+        return this;
+    }
+    
+    /**
+     * Stops the install. The install will not start if it has not already. Otherwise the
+     * thread running it is interrupted, and its open responses are aborted in the background.
+     * This does not wait for the install to stop.
+     * 
+     * @param stopped Completes the future once the install has stopped.
+     * @return Whether or not the install is being stopped by this call.
+     */
+    private boolean stop (Runnable stopped) {
+        
+        final List<HttpTransport.Response> open;
+        
+        synchronized (this) {
+            
+            if (this.isDone() || this.completion != null)
+                return false;
+                
+            this.completion = stopped;
+            
+            if (this.runner == null)
+                open = null;
+                
+            else {
+                
+                if (this.runner != Thread.currentThread()) {
+                    
+                    this.runner.interrupt();
+                    this.interrupted = true;
+                }
+                
+                open = new ArrayList<>(this.responses);
+                TIMER.schedule(this::finishStop, STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        if (open == null) {
+            
+            stopped.run();
+            return true;
+        }
+        
+        // Aborting can block until a read in progress returns, so it is kept off the caller.
+        if (!open.isEmpty()) {
+            
+            final Thread aborter = new Thread( () -> open.forEach(InstallFuture::abort), "Blaspheme Abort");
+            aborter.setDaemon(true);
+            aborter.start();
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Completes the future of a stopped install which did not stop within the time limit.
+     */
+    private void finishStop () {
+        
+        final Runnable stopped;
+        
+        synchronized (this) {
+            
+            if (this.runner == null)
+                return;
+                
+            stopped = this.completion;
+        }
+        
+        Blaspheme.LOGGER.log(Level.WARNING, "The install did not stop within " + STOP_TIMEOUT + "ms");
+        stopped.run();
+    }
+    
+    /**
+     * Tracks a response opened by the install running on the current thread, so stopping the
+     * install aborts it. Responses opened outside of an install are returned as they are.
+     * 
+     * @param response The response to track.
+     * @return The response, which stops being tracked once it is closed.
+     * @throws InterruptedIOException If the install has already been stopped. The response is
+     *         aborted.
+     */
+    static HttpTransport.Response track (HttpTransport.Response response) throws InterruptedIOException {
+        
+        final InstallFuture<?> install = CURRENT.get();
+        
+        if (install == null)
+            return response;
+            
+        synchronized (install) {
+            
+            if (install.completion == null) {
+                
+                install.responses.add(response);
+                return new TrackedResponse(install, response);
+            }
+        }
+        
+        abort(response);
+        throw new InterruptedIOException("The install was stopped");
+    }
+    
+    /**
+     * Aborts a response, logging any failure.
+     * 
+     * @param response The response to abort.
+     */
+    private static void abort (HttpTransport.Response response) {
+        
+        try {
+            
+            response.abort();
+        }
+        
+        catch (final IOException e) {
+            
+            Blaspheme.LOGGER.log(Level.FINE, "Could not abort a response", e);
+        }
+    }
+    
+    /**
+     * Gets the install running on the current thread.
+     * 
+     * @return The install of the current thread, or null if it is not running an install.
+     */
+    static InstallFuture<?> current () {
+        
+        return CURRENT.get();
+    }
+    
+    /**
+     * Sets the install running on the current thread, so worker threads can be stopped along
+     * with it.
+     * 
+     * @param install The install. Null will clear the install of the thread.
+     */
+    static void setCurrent (InstallFuture<?> install) {
+        
+        if (install == null)
+            CURRENT.remove();
+            
+        else
+            CURRENT.set(install);
+    }
+    
+    /**
+     * A response which stops being tracked by an install once it is closed.
+     */
+    private static class TrackedResponse implements HttpTransport.Response {
+        
+        /**
+         * The install tracking the response.
+         */
+        private final InstallFuture<?> install;
+        
+        /**
+         * The response being tracked.
+         */
+        private final HttpTransport.Response response;
+        
+        public TrackedResponse(InstallFuture<?> install, HttpTransport.Response response) {
+            
+            this.install = install;
+            this.response = response;
+        }
+        
+        @Override
+        public int getStatus () throws IOException {
+            
+            return this.response.getStatus();
+        }
+        
+        @Override
+        public String getHeader (String name) {
+            
+            return this.response.getHeader(name);
+        }
+        
+        @Override
+        public long getContentLength () {
+            
+            return this.response.getContentLength();
+        }
+        
+        @Override
+        public InputStream getBody () throws IOException {
+            
+            return this.response.getBody();
+        }
+        
+        @Override
+        public void abort () throws IOException {
+            
+            this.response.abort();
+        }
+        
+        @Override
+        public void close () throws IOException {
+            
+            synchronized (this.install) {
+                
+                this.install.responses.remove(this.response);
+            }
+            
+            this.response.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,237 @@
+package net.darkhax.blaspheme;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class representation of the lock file written to an instance after an install. It records
+ * the manifest that was installed, the name of every mod file that was installed for it, and
+ * the hash of every override, so later updates can work out what changed.
+ */
+public class InstallLock {
+    
+    /**
+     * The name of the lock file within an instance directory.
+     */
+    public static final String FILE_NAME = "blaspheme.lock";
+    
+    /**
+     * The manifest that was installed.
+     */
+    public Manifest manifest;
+    
+    /**
+     * List of all the installed mod files.
+     */
+    public List<LockedFile> files = new ArrayList<>();
+    
+    /**
+     * Map of override paths to the CRC-32 of the override which was installed. May be null
+     * for packs installed by older versions.
+     */
+    public Map<String, String> overrides;
+    
+    public InstallLock() {
+        
+    }
+    
+    public InstallLock(Manifest manifest) {
+        
+        this.manifest = manifest;
+    }
+    
+    /**
+     * Gets the installed file for a project and file ID.
+     * 
+     * @param projectID The ID of the project.
+     * @param fileID The ID of the file.
+     * @return The installed file, or null if it was not installed.
+     */
+    public LockedFile get (int projectID, int fileID) {
+        
+        for (final LockedFile file : this.files)
+            if (file.projectID == projectID && file.fileID == fileID)
+                return file;
+                
+        return null;
+    }
+    
+    /**
+     * Records an installed file. Any older record for the same project and file ID is
+     * replaced.
+     * 
+     * @param file The installed file.
+     */
+    public synchronized void add (LockedFile file) {
+        
+        this.files.removeIf(existing -> existing.projectID == file.projectID && existing.fileID == file.fileID);
+        this.files.add(file);
+    }
+    
+    /**
+     * Writes the lock file to an instance directory.
+     * 
+     * @param instanceDir The directory to write to.
+     */
+    public synchronized void write (File instanceDir) throws IOException {
+        
+        final File lockFile = new File(instanceDir, FILE_NAME);
+        final File tempFile = new File(instanceDir, FILE_NAME + ".tmp");
+        
+        try (Writer writer = new FileWriter(tempFile)) {
+            
+            Blaspheme.GSON.toJson(this, writer);
+        }
+        
+        Files.move(tempFile.toPath(), lockFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    /**
+     * Reads the lock file from an instance directory.
+     * 
+     * @param instanceDir The directory to read from.
+     * @return The lock file, or null if the instance does not have one.
+     */
+    public static InstallLock read (File instanceDir) throws IOException {
+        
+        final File lockFile = new File(instanceDir, FILE_NAME);
+        
+        if (!lockFile.isFile())
+            return null;
+            
+        try (Reader reader = new FileReader(lockFile)) {
+            
+            return Blaspheme.GSON.fromJson(reader, InstallLock.class);
+        }
+    }
+    
+    /**
+     * Class representation of an installed mod file.
+     */
+    public static class LockedFile {
+        
+        /**
+         * ID for a project.
+         */
+        public int projectID;
+        
+        /**
+         * The file ID.
+         */
+        public int fileID;
+        
+        /**
+         * The name of the file within the mods directory.
+         */
+        public String fileName;
+        
+        /**
+         * The SHA-1 hash of the installed file. May be null for files installed by older
+         * versions.
+         */
+        public String sha1;
+        
+        /**
+         * The size of the installed file in bytes.
+         */
+        public long size;
+        
+        public LockedFile() {
+            
+        }
+        
+        public LockedFile(int projectID, int fileID, String fileName, String sha1, long size) {
+            
+            this.projectID = projectID;
+            this.fileID = fileID;
+            this.fileName = fileName;
+            this.sha1 = sha1;
+            this.size = size;
+        }
+        
+        /**
+         * Gets a key which identifies the project and file of this entry.
+         * 
+         * @return The key for the entry.
+         */
+        public long getKey () {
+            
+            return Manifest.FileData.getKey(this.projectID, this.fileID);
+        }
+        
+        /**
+         * Gets the location of the installed file.
+         * 
+         * @param modsDir The mods directory of the instance.
+         * @return The installed file.
+         * @throws IOException If the recorded name is not a plain file name.
+         */
+        public File getFile (File modsDir) throws IOException {
+            
+            return Blaspheme.getModFile(modsDir, this.fileName);
+        }
+        
+        /**
+         * Checks if the installed file still exists. A file with a recorded name outside of
+         * the mods directory never exists.
+         * 
+         * @param modsDir The mods directory of the instance.
+         * @return Whether or not the installed file exists.
+         */
+        public boolean exists (File modsDir) {
+            
+            try {
+                
+                return this.getFile(modsDir).exists();
+            }
+            
+            catch (final IOException e) {
+                
+                return false;
+            }
+        }
+        
+        /**
+         * Checks if an installed file still matches its recorded size and hash. Files without
+         * a recorded hash only need to exist.
+         * 
+         * @param modsDir The mods directory of the instance.
+         * @return Whether or not the installed file is intact.
+         */
+        public boolean verify (File modsDir) {
+            
+            try {
+                
+                final File file = this.getFile(modsDir);
+                
+                if (!file.isFile())
+                    return false;
+                    
+                if (this.sha1 == null)
+                    return true;
+                    
+                return file.length() == this.size && this.sha1.equals(Hashes.hashFile(file));
+            }
+            
+            catch (final IOException e) {
+                
+                return false;
+            }
+        }
+        
+        @Override
+        public String toString () {
+            
+            return this.projectID + "/" + this.fileID + " (" + this.fileName + ")";
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,275 @@
+package net.darkhax.blaspheme;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Counters and histograms for the phases of an install. These show where the time of a slow
+ * install goes, such as redirect chains, slow transfers or extracting the pack. Each install
+ * records to its own metrics, which are bound to the threads doing its work, so installs
+ * running at the same time do not mix their numbers. A summary is written as json next to the
+ * instance at the end of each install.
+ */
+public class InstallMetrics {
+    
+    /**
+     * The name of the summary file written at the end of an install.
+     */
+    public static final String FILE_NAME = "blaspheme-metrics.json";
+    
+    /**
+     * Time taken to resolve a location, following every redirect.
+     */
+    public static final String REDIRECT_TIME = "redirect.millis";
+    
+    /**
+     * The amount of redirects followed to resolve a location.
+     */
+    public static final String REDIRECT_HOPS = "redirect.hops";
+    
+    /**
+     * Time from sending a download request to receiving the response headers.
+     */
+    public static final String FIRST_BYTE_TIME = "download.firstByte.millis";
+    
+    /**
+     * Time taken to download a file, including retries.
+     */
+    public static final String DOWNLOAD_TIME = "download.millis";
+    
+    /**
+     * The transfer rate of each downloaded file.
+     */
+    public static final String DOWNLOAD_RATE = "download.bytesPerSecond";
+    
+    /**
+     * The amount of downloaded files.
+     */
+    public static final String DOWNLOADED_FILES = "download.files";
+    
+    /**
+     * The amount of downloaded bytes.
+     */
+    public static final String DOWNLOADED_BYTES = "download.bytes";
+    
+    /**
+     * The amount of download attempts which failed and were retried.
+     */
+    public static final String DOWNLOAD_RETRIES = "download.retries";
+    
+    /**
+     * The amount of requests which were rate limited or hit a server error.
+     */
+    public static final String THROTTLED = "http.throttled";
+    
+    /**
+     * Time taken to extract the overrides from a pack zip.
+     */
+    public static final String EXTRACT_TIME = "extract.millis";
+    
+    /**
+     * Time taken to copy the overrides from an extracted pack.
+     */
+    public static final String OVERRIDES_TIME = "overrides.millis";
+    
+    /**
+     * Wall time of downloading the pack zip.
+     */
+    public static final String PHASE_ARCHIVE = "phase.archive.millis";
+    
+    /**
+     * Wall time of downloading all the mods of a pack.
+     */
+    public static final String PHASE_MODS = "phase.mods.millis";
+    
+    /**
+     * Wall time of setting up the overrides of a pack.
+     */
+    public static final String PHASE_OVERRIDES = "phase.overrides.millis";
+    
+    /**
+     * Wall time of an entire install.
+     */
+    public static final String PHASE_INSTALL = "phase.install.millis";
+    
+    /**
+     * Instance of GSON used to write the summary.
+     */
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    
+    /**
+     * Map of counter names to counters.
+     */
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    
+    /**
+     * Map of histogram names to histograms.
+     */
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    
+    /**
+     * Whether or not metrics are recorded.
+     */
+    private volatile boolean enabled = true;
+    
+    /**
+     * The metrics of the install running on each thread.
+     */
+    private static final ThreadLocal<InstallMetrics> CURRENT = new ThreadLocal<>();
+    
+    /**
+     * Adds to a counter.
+     * 
+     * @param name The name of the counter.
+     * @param amount The amount to add.
+     */
+    public void add (String name, long amount) {
+        
+        if (this.enabled)
+            this.getCounter(name).add(amount);
+    }
+    
+    /**
+     * Records a value in a histogram.
+     * 
+     * @param name The name of the histogram.
+     * @param value The value to record.
+     */
+    public void record (String name, long value) {
+        
+        if (this.enabled)
+            this.getHistogram(name).record(value);
+    }
+    
+    /**
+     * Records the time since a start time in a histogram, in milliseconds.
+     * 
+     * @param name The name of the histogram.
+     * @param startTime The start time, from {@link System#nanoTime()}.
+     */
+    public void recordTime (String name, long startTime) {
+        
+        this.record(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+    
+    /**
+     * Gets a counter, creating it if it does not exist.
+     * 
+     * @param name The name of the counter.
+     * @return The counter.
+     */
+    public LongAdder getCounter (String name) {
+        
+        return this.counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+    
+    /**
+     * Gets a histogram, creating it if it does not exist.
+     * 
+     * @param name The name of the histogram.
+     * @return The histogram.
+     */
+    public Histogram getHistogram (String name) {
+        
+        return this.histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+    
+    /**
+     * Checks if metrics are recorded.
+     * 
+     * @return Whether or not metrics are recorded.
+     */
+    public boolean isEnabled () {
+        
+        return this.enabled;
+    }
+    
+    /**
+     * Sets whether or not metrics are recorded. When disabled, nothing is recorded and no
+     * summary is written.
+     * 
+     * @param enabled Whether or not metrics should be recorded.
+     */
+    public void setEnabled (boolean enabled) {
+        
+        this.enabled = enabled;
+    }
+    
+    /**
+     * Clears all counters and histograms.
+     */
+    public void reset () {
+        
+        this.counters.clear();
+        this.histograms.clear();
+    }
+    
+    /**
+     * Gets the metrics of the install running on the current thread.
+     * 
+     * @return The metrics of the current thread, or null if no install is running on it.
+     */
+    public static InstallMetrics current () {
+        
+        return CURRENT.get();
+    }
+    
+    /**
+     * Sets the metrics of the install running on the current thread.
+     * 
+     * @param metrics The metrics to record to. Null will clear the metrics of the thread.
+     */
+    public static void setCurrent (InstallMetrics metrics) {
+        
+        if (metrics == null)
+            CURRENT.remove();
+            
+        else
+            CURRENT.set(metrics);
+    }
+    
+    /**
+     * Creates a json summary of every counter and histogram.
+     * 
+     * @return The summary as json.
+     */
+    public String toJson () {
+        
+        final Map<String, Object> counters = new TreeMap<>();
+        final Map<String, Object> histograms = new TreeMap<>();
+        final Map<String, Object> summary = new TreeMap<>();
+        
+        for (final Map.Entry<String, LongAdder> counter : this.counters.entrySet())
+            counters.put(counter.getKey(), counter.getValue().sum());
+            
+        for (final Map.Entry<String, Histogram> histogram : this.histograms.entrySet())
+            histograms.put(histogram.getKey(), histogram.getValue().toSummary());
+            
+        summary.put("counters", counters);
+        summary.put("histograms", histograms);
+        return GSON.toJson(summary);
+    }
+    
+    /**
+     * Writes the json summary to a file.
+     * 
+     * @param file The file to write to.
+     */
+    public void write (File file) throws IOException {
+        
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            
+            writer.write(this.toJson());
+        }
+    }
+}
\ No newline at end of file
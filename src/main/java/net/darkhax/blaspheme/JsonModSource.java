@@ -0,0 +1,184 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A mod source which looks up a batch of files with a single request to a json service, such
+ * as an internal mirror. The IDs are sent as a files parameter, in the form
+ * {@code files=projectID:fileID,projectID:fileID}, and the service responds with an array of
+ * objects holding the projectID, fileID, url and optionally the fileName and length of each
+ * file. Files which are left out of the response, or which have no url, are treated as
+ * missing. A response with a file name which is not a plain file name is rejected.
+ */
+public class JsonModSource implements ModSource {
+    
+    /**
+     * The default amount of files looked up per request.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    
+    /**
+     * The URL of the lookup service.
+     */
+    private final String lookupUrl;
+    
+    /**
+     * The amount of files looked up per request.
+     */
+    private final int batchSize;
+    
+    /**
+     * Creates a source which looks up files from a json service.
+     * 
+     * @param lookupUrl The URL of the lookup service.
+     */
+    public JsonModSource(String lookupUrl) {
+        
+        this(lookupUrl, DEFAULT_BATCH_SIZE);
+    }
+    
+    /**
+     * Creates a source which looks up files from a json service.
+     * 
+     * @param lookupUrl The URL of the lookup service.
+     * @param batchSize The amount of files looked up per request.
+     */
+    public JsonModSource(String lookupUrl, int batchSize) {
+        
+        if (batchSize < 1)
+            throw new IllegalArgumentException("The batch size must be at least 1");
+            
+        this.lookupUrl = lookupUrl;
+        this.batchSize = batchSize;
+    }
+    
+    @Override
+    public ResolvedFile resolve (Manifest.FileData file, boolean useCache) throws IOException, URISyntaxException {
+        
+        return this.resolveAll(Collections.singletonList(file), useCache).get(0);
+    }
+    
+    @Override
+    public List<ResolvedFile> resolveAll (List<Manifest.FileData> files, boolean useCache) throws IOException {
+        
+        final StringBuilder ids = new StringBuilder();
+        
+        for (final Manifest.FileData file : files) {
+            
+            if (ids.length() > 0)
+                ids.append(',');
+                
+            ids.append(file.projectID).append(':').append(file.fileID);
+        }
+        
+        final URL url = new URL(this.lookupUrl + (this.lookupUrl.contains("?") ? "&" : "?") + "files=" + ids);
+        final LookupEntry[] entries;
+        
+        try (HttpTransport.Response response = Blaspheme.send("GET", url, Collections.emptyMap())) {
+            
+            if (response.getStatus() >= 400)
+                throw HttpStatusException.from(response, url);
+                
+            try (Reader reader = new InputStreamReader(response.getBody(), StandardCharsets.UTF_8)) {
+                
+                entries = Blaspheme.GSON.fromJson(reader, LookupEntry[].class);
+            }
+        }
+        
+        final Map<String, LookupEntry> found = new HashMap<>();
+        
+        if (entries != null)
+            for (final LookupEntry entry : entries)
+                if (entry != null)
+                    found.put(RedirectCache.fileKey(entry.projectID, entry.fileID), entry);
+                    
+        final List<ResolvedFile> resolved = new ArrayList<>(files.size());
+        
+        for (final Manifest.FileData file : files) {
+            
+            final LookupEntry entry = found.get(RedirectCache.fileKey(file.projectID, file.fileID));
+            
+            if (entry == null || entry.url == null)
+                resolved.add(new ResolvedFile(file, null, null, false, true));
+                
+            else {
+                
+                final String fileName = entry.fileName != null ? entry.fileName : getFileName(entry.url);
+                
+                if (!Blaspheme.isPlainFileName(fileName))
+                    throw new IOException("The lookup service gave " + file + " the file name " + fileName + ", which is not a plain file name");
+                    
+                resolved.add(new ResolvedFile(file, entry.url, fileName, false, false, entry.length));
+            }
+        }
+        
+        return resolved;
+    }
+    
+    @Override
+    public int getBatchSize () {
+        
+        return this.batchSize;
+    }
+    
+    @Override
+    public URL getLookupURL (Manifest.FileData file) throws MalformedURLException {
+        
+        return new URL(this.lookupUrl);
+    }
+    
+    /**
+     * Gets the decoded file name from the end of a download URL.
+     * 
+     * @param url The download URL.
+     * @return The name of the file.
+     */
+    private static String getFileName (String url) throws IOException {
+        
+        final String path = new URL(url).getPath();
+        return URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), "UTF-8");
+    }
+    
+    /**
+     * Class representation of a file in the lookup response.
+     */
+    private static class LookupEntry {
+        
+        /**
+         * The ID of the project.
+         */
+        public int projectID;
+        
+        /**
+         * The ID of the file.
+         */
+        public int fileID;
+        
+        /**
+         * The download URL for the file, or null if it is missing.
+         */
+        public String url;
+        
+        /**
+         * The name of the file. Taken from the URL if it is not given.
+         */
+        public String fileName;
+        
+        /**
+         * The size of the file in bytes, or -1 if it is not given.
+         */
+        public long length = -1;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A sink which waits for a {@link BandwidthLimiter} before passing each write on, so the bytes
+ * written through it stay within the budget of the limiter.
+ */
+public class LimitedSink implements DownloadSink {
+    
+    /**
+     * The sink the bytes are passed on to.
+     */
+    private final DownloadSink sink;
+    
+    /**
+     * The limiter the bytes are taken from.
+     */
+    private final BandwidthLimiter limiter;
+    
+    /**
+     * The share the bytes are taken from.
+     */
+    private final BandwidthLimiter.Share share;
+    
+    public LimitedSink(DownloadSink sink, BandwidthLimiter limiter, BandwidthLimiter.Share share) {
+        
+        this.sink = sink;
+        this.limiter = limiter;
+        this.share = share;
+    }
+    
+    @Override
+    public void write (ByteBuffer buffer) throws IOException {
+        
+        this.limiter.acquire(this.share, buffer.remaining());
+        this.sink.write(buffer);
+    }
+    
+    /**
+     * Wraps a sink so its writes are limited by the global network and disk limiters.
+     * 
+     * @param sink The sink to wrap.
+     * @param share The share the bytes are taken from.
+     * @return The wrapped sink.
+     */
+    public static DownloadSink wrapDownload (DownloadSink sink, BandwidthLimiter.Share share) {
+        
+        return new LimitedSink(new LimitedSink(sink, Blaspheme.getDiskLimiter(), share), Blaspheme.getNetworkLimiter(), share);
+    }
+}
\ No newline at end of file
@@ -121,6 +121,28 @@ public class Manifest {
          */
         public boolean required;
         
+        /**
+         * Gets a key which identifies the project and file of this entry.
+         * 
+         * @return The key for the entry.
+         */
+        public long getKey () {
+            
+            return getKey(this.projectID, this.fileID);
+        }
+        
+        /**
+         * Gets a key which identifies a project and file, for looking files up in maps.
+         * 
+         * @param projectID The ID of the project.
+         * @param fileID The ID of the file.
+         * @return The key for the project and file.
+         */
+        public static long getKey (int projectID, int fileID) {
+            
+            return (long) projectID << 32 | fileID & 0xFFFFFFFFL;
+        }
+        
         @Override
         public String toString () {
             
@@ -0,0 +1,170 @@
+package net.darkhax.blaspheme;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads a pack manifest as a stream. The mod files are read one at a time with
+ * {@link #nextFile()}, so downloads can start before the whole manifest has been parsed, and
+ * the file list is never held in memory. Every other property of the manifest is available
+ * from {@link #getManifest()} once it has been read.
+ */
+public class ManifestReader implements Closeable {
+    
+    /**
+     * The reader for the manifest json.
+     */
+    private final JsonReader reader;
+    
+    /**
+     * The properties of the manifest which have been read so far, other than the files.
+     */
+    private final JsonObject properties = new JsonObject();
+    
+    /**
+     * Whether or not the reader is within the files array.
+     */
+    private boolean inFiles;
+    
+    /**
+     * Creates a reader for a manifest file.
+     * 
+     * @param file The manifest file to read.
+     */
+    public ManifestReader(File file) throws IOException {
+        
+        this(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Creates a reader for a manifest. Every property before the files array is read right
+     * away. The reader will be closed when this is closed.
+     * 
+     * @param reader The reader for the manifest json.
+     */
+    public ManifestReader(Reader reader) throws IOException {
+        
+        this.reader = new JsonReader(reader);
+        
+        try {
+            
+            this.reader.beginObject();
+            this.readProperties();
+        }
+        
+        catch (IOException | JsonParseException e) {
+            
+            this.reader.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("The manifest is not valid", e);
+        }
+    }
+    
+    /**
+     * Reads the next mod file from the manifest. Once the last file has been read, the rest of
+     * the manifest is read as well.
+     * 
+     * @return The next mod file, or null if there are no more files.
+     */
+    public Manifest.FileData nextFile () throws IOException {
+        
+        try {
+            
+            while (this.inFiles) {
+                
+                if (!this.reader.hasNext()) {
+                    
+                    this.reader.endArray();
+                    this.inFiles = false;
+                    this.readProperties();
+                }
+                
+                else if (this.reader.peek() == JsonToken.NULL)
+                    this.reader.skipValue();
+                    
+                else
+                    return Blaspheme.GSON.fromJson(this.reader, Manifest.FileData.class);
+            }
+        }
+        
+        catch (final JsonParseException e) {
+            
+            this.inFiles = false;
+            throw new IOException("The manifest is not valid", e);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Reads every remaining mod file, and the rest of the manifest.
+     * 
+     * @return The full manifest.
+     */
+    public Manifest readAll () throws IOException {
+        
+        final List<Manifest.FileData> files = new ArrayList<>();
+        Manifest.FileData file;
+        
+        while ((file = this.nextFile()) != null)
+            files.add(file);
+        
+        final Manifest manifest = this.getManifest();
+        manifest.files = files;
+        return manifest;
+    }
+    
+    /**
+     * Gets the properties of the manifest which have been read so far. Properties which come
+     * after the files are only available once every file has been read. The files of the
+     * returned manifest are always empty.
+     * 
+     * @return The manifest, without its files.
+     */
+    public Manifest getManifest () {
+        
+        final Manifest manifest = Blaspheme.GSON.fromJson(this.properties, Manifest.class);
+        manifest.files = new ArrayList<>();
+        return manifest;
+    }
+    
+    /**
+     * Reads properties until the files array or the end of the manifest is reached.
+     */
+    private void readProperties () throws IOException {
+        
+        while (this.reader.hasNext()) {
+            
+            final String name = this.reader.nextName();
+            
+            if ("files".equals(name) && this.reader.peek() == JsonToken.BEGIN_ARRAY) {
+                
+                this.reader.beginArray();
+                this.inFiles = true;
+                return;
+            }
+            
+            this.properties.add(name, Blaspheme.GSON.fromJson(this.reader, JsonElement.class));
+        }
+        
+        this.reader.endObject();
+    }
+    
+    @Override
+    public void close () throws IOException {
+        
+        this.reader.close();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,64 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A source which resolves manifest entries to download locations. The default source follows
+ * the curse redirects for each file, but sources can also look files up from a mirror or a
+ * local stub. Sources which can look up many files in one request should override
+ * {@link #resolveAll(List, boolean)} and {@link #getBatchSize()}.
+ */
+public interface ModSource {
+    
+    /**
+     * Resolves the download location for a manifest entry.
+     * 
+     * @param file The manifest entry to resolve.
+     * @param useCache Whether or not cached lookups can be used.
+     * @return The resolved file.
+     */
+    ResolvedFile resolve (Manifest.FileData file, boolean useCache) throws IOException, URISyntaxException;
+    
+    /**
+     * Resolves the download locations for a batch of manifest entries. By default each entry
+     * is resolved on its own.
+     * 
+     * @param files The manifest entries to resolve. This will not be larger than the batch
+     *        size.
+     * @param useCache Whether or not cached lookups can be used.
+     * @return The resolved files, in the same order as the entries.
+     */
+    default List<ResolvedFile> resolveAll (List<Manifest.FileData> files, boolean useCache) throws IOException, URISyntaxException {
+        
+        final List<ResolvedFile> resolved = new ArrayList<>(files.size());
+        
+        for (final Manifest.FileData file : files)
+            resolved.add(this.resolve(file, useCache));
+            
+        return resolved;
+    }
+    
+    /**
+     * Gets the largest amount of entries which can be resolved in one batch.
+     * 
+     * @return The batch size.
+     */
+    default int getBatchSize () {
+        
+        return 1;
+    }
+    
+    /**
+     * Gets the URL lookups for an entry are sent to. This is used to share connection slots
+     * and retries between lookups to the same host.
+     * 
+     * @param file The manifest entry being resolved.
+     * @return The URL of the lookup.
+     */
+    URL getLookupURL (Manifest.FileData file) throws MalformedURLException;
+}
\ No newline at end of file
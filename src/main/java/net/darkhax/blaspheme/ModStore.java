@@ -0,0 +1,484 @@
+package net.darkhax.blaspheme;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+
+/**
+ * A machine wide store of mod files. Files are kept once by their content hash, and indexed by
+ * their project and file ID. Instances get their mods from the store as hard links, or as
+ * copies when linking is not possible, so a mod shared by many packs is only downloaded and
+ * stored once. Linked files share their contents with the store, so they should not be
+ * modified in place.
+ */
+public class ModStore {
+    
+    /**
+     * The directory holding the file contents, named by their hash.
+     */
+    private final File objectsDir;
+    
+    /**
+     * The directory holding the index of project and file IDs to their hash.
+     */
+    private final File indexDir;
+    
+    /**
+     * The directory used for files which are still being downloaded.
+     */
+    private final File tempDir;
+    
+    /**
+     * Downloads into the store which are in progress, by their temp file name. Guarded by
+     * the map.
+     */
+    private final Map<String, Claim> downloads = new HashMap<>();
+    
+    /**
+     * Creates a mod store.
+     * 
+     * @param root The root directory of the store.
+     */
+    public ModStore(File root) {
+        
+        this.objectsDir = new File(root, "objects");
+        this.indexDir = new File(root, "index");
+        this.tempDir = new File(root, "temp");
+        
+        this.objectsDir.mkdirs();
+        this.indexDir.mkdirs();
+        this.tempDir.mkdirs();
+    }
+    
+    /**
+     * Gets a stored file by its project and file ID.
+     * 
+     * @param projectID The ID of the project.
+     * @param fileID The ID of the file.
+     * @return The stored file, or null if the store does not have it.
+     */
+    public Entry get (int projectID, int fileID) {
+        
+        final File indexFile = this.getIndexFile(projectID, fileID);
+        
+        if (!indexFile.isFile())
+            return null;
+            
+        final Properties properties = new Properties();
+        
+        try (InputStream stream = new FileInputStream(indexFile)) {
+            
+            properties.load(stream);
+        }
+        
+        catch (final IOException e) {
+            
+            Blaspheme.LOGGER.log(Level.WARNING, "Could not read store index for " + projectID + "/" + fileID, e);
+            return null;
+        }
+        
+        final String hash = properties.getProperty("hash");
+        final String fileName = properties.getProperty("fileName");
+        
+        if (hash == null || fileName == null)
+            return null;
+            
+        final Entry entry = new Entry(projectID, fileID, fileName, hash, this.getObjectFile(hash));
+        return entry.getFile().isFile() ? entry : null;
+    }
+    
+    /**
+     * Downloads a resolved file into the store, unless the store already has it. The download
+     * uses a fixed temporary name, so an interrupted download is resumed by the next attempt.
+     * 
+     * @param resolved The resolved file to download.
+     * @return The stored file.
+     */
+    public Entry download (ResolvedFile resolved) throws IOException {
+        
+        final Manifest.FileData data = resolved.getFile();
+        Entry existing = this.get(data.projectID, data.fileID);
+        
+        if (existing != null)
+            return existing;
+            
+        this.claimDownload(data);
+        
+        try {
+            
+            // Another download of the same file may have finished while waiting for the claim.
+            existing = this.get(data.projectID, data.fileID);
+            
+            if (existing != null)
+                return existing;
+                
+            final File temp = this.getDownloadFile(data);
+            final String hash = Blaspheme.getRetryPolicy().call(resolved.getURL(), null, () -> Blaspheme.downloadFileFromURL(temp, resolved.getURL()));
+            
+            try {
+                
+                return this.add(data.projectID, data.fileID, resolved.getFileName(), temp, hash);
+            }
+            
+            finally {
+                
+                temp.delete();
+            }
+        }
+        
+        finally {
+            
+            this.releaseDownload(data);
+        }
+    }
+    
+    /**
+     * Claims the temporary download file of a manifest entry, waiting while another download
+     * holds it. Without this, two installs downloading the same mod would write over each
+     * other's partial file. The claim is also locked on disk, so other processes sharing the
+     * store wait as well. Every claim must be released with
+     * {@link #releaseDownload(Manifest.FileData)}, and the store should be checked for the
+     * file again once the claim is held.
+     * 
+     * @param file The manifest entry being downloaded.
+     */
+    public void claimDownload (Manifest.FileData file) throws IOException {
+        
+        final String key = this.getDownloadFile(file).getName();
+        final Claim claim = new Claim();
+        
+        while (true) {
+            
+            final Claim current;
+            
+            synchronized (this.downloads) {
+                
+                current = this.downloads.putIfAbsent(key, claim);
+            }
+            
+            if (current == null)
+                break;
+                
+            try {
+                
+                current.released.await();
+            }
+            
+            catch (final InterruptedException e) {
+                
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for another download of " + file);
+            }
+        }
+        
+        try {
+            
+            claim.channel = FileChannel.open(new File(this.tempDir, key + ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            claim.channel.lock();
+        }
+        
+        catch (final IOException e) {
+            
+            this.releaseDownload(file);
+            throw e;
+        }
+    }
+    
+    /**
+     * Releases the claim on the temporary download file of a manifest entry.
+     * 
+     * @param file The manifest entry which was being downloaded.
+     */
+    public void releaseDownload (Manifest.FileData file) {
+        
+        final Claim claim;
+        
+        synchronized (this.downloads) {
+            
+            claim = this.downloads.remove(this.getDownloadFile(file).getName());
+        }
+        
+        if (claim == null)
+            return;
+            
+        try {
+            
+            if (claim.channel != null)
+                claim.channel.close();
+        }
+        
+        catch (final IOException e) {
+            
+            Blaspheme.LOGGER.log(Level.WARNING, "Could not release the download lock for " + file, e);
+        }
+        
+        claim.released.countDown();
+    }
+    
+    /**
+     * Gets the temporary file a manifest entry is downloaded to before being added to the
+     * store. The name is fixed, so an interrupted download can be resumed later.
+     * 
+     * @param file The manifest entry being downloaded.
+     * @return The temporary download file.
+     */
+    public File getDownloadFile (Manifest.FileData file) {
+        
+        return new File(this.tempDir, file.projectID + "-" + file.fileID + ".download");
+    }
+    
+    /**
+     * Adds a file to the store. The source file is moved into the store.
+     * 
+     * @param projectID The ID of the project.
+     * @param fileID The ID of the file.
+     * @param fileName The name of the file.
+     * @param source The file to add.
+     * @return The stored file.
+     */
+    public Entry add (int projectID, int fileID, String fileName, File source) throws IOException {
+        
+        return this.add(projectID, fileID, fileName, source, Hashes.hashFile(source));
+    }
+    
+    /**
+     * Adds a file to the store, using a hash which is already known. The source file is moved
+     * into the store.
+     * 
+     * @param projectID The ID of the project.
+     * @param fileID The ID of the file.
+     * @param fileName The name of the file.
+     * @param source The file to add.
+     * @param hash The SHA-1 hash of the file.
+     * @return The stored file.
+     */
+    public Entry add (int projectID, int fileID, String fileName, File source, String hash) throws IOException {
+        
+        final File object = this.getObjectFile(hash);
+        
+        if (!object.isFile()) {
+            
+            object.getParentFile().mkdirs();
+            Files.move(source.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        
+        final Properties properties = new Properties();
+        properties.setProperty("hash", hash);
+        properties.setProperty("fileName", fileName);
+        
+        final File indexFile = this.getIndexFile(projectID, fileID);
+        final File tempIndex = File.createTempFile("index", ".tmp", this.tempDir);
+        
+        try (OutputStream stream = new FileOutputStream(tempIndex)) {
+            
+            properties.store(stream, null);
+        }
+        
+        indexFile.getParentFile().mkdirs();
+        Files.move(tempIndex.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        
+        return new Entry(projectID, fileID, fileName, hash, object);
+    }
+    
+    /**
+     * Checks that the contents of a stored file still match its hash. Entries which do not
+     * match are removed from the store, so they will be downloaded again.
+     * 
+     * @param entry The stored file to check.
+     * @return Whether or not the stored file is intact.
+     */
+    public boolean verify (Entry entry) throws IOException {
+        
+        if (entry.getFile().isFile() && Hashes.hashFile(entry.getFile()).equals(entry.getHash()))
+            return true;
+            
+        Blaspheme.LOGGER.log(Level.WARNING, "Stored file " + entry.getFileName() + " is corrupt, it will be removed from the store");
+        this.getIndexFile(entry.getProjectID(), entry.getFileID()).delete();
+        entry.getFile().delete();
+        return false;
+    }
+    
+    /**
+     * Installs a stored file into an instance. A hard link is used when possible, otherwise
+     * the file is copied.
+     * 
+     * @param entry The stored file to install.
+     * @param target The location to install the file to.
+     * @return Whether or not the file was linked rather than copied.
+     */
+    public boolean install (Entry entry, File target) throws IOException {
+        
+        return linkOrCopy(entry.getFile(), target);
+    }
+    
+    /**
+     * Creates a hard link to a file, or copies it when linking is not possible.
+     * 
+     * @param source The file to link to.
+     * @param target The location of the new link.
+     * @return Whether or not the file was linked rather than copied.
+     */
+    public static boolean linkOrCopy (File source, File target) throws IOException {
+        
+        try {
+            
+            Files.createLink(target.toPath(), source.toPath());
+            return true;
+        }
+        
+        catch (final FileAlreadyExistsException e) {
+            
+            throw e;
+        }
+        
+        catch (final IOException | UnsupportedOperationException e) {
+            
+            Files.copy(source.toPath(), target.toPath());
+            return false;
+        }
+    }
+    
+    /**
+     * Gets the index file for a project and file ID.
+     * 
+     * @param projectID The ID of the project.
+     * @param fileID The ID of the file.
+     * @return The index file.
+     */
+    private File getIndexFile (int projectID, int fileID) {
+        
+        return new File(new File(this.indexDir, String.valueOf(projectID)), fileID + ".properties");
+    }
+    
+    /**
+     * Gets the object file for a content hash. Objects are split into sub directories by the
+     * first two characters of their hash.
+     * 
+     * @param hash The content hash.
+     * @return The object file.
+     */
+    private File getObjectFile (String hash) {
+        
+        return new File(new File(this.objectsDir, hash.substring(0, 2)), hash);
+    }
+    
+    /**
+     * A claim on the temporary download file of a manifest entry.
+     */
+    private static class Claim {
+        
+        /**
+         * Released once the claim is given up, waking anyone waiting for it.
+         */
+        private final CountDownLatch released = new CountDownLatch(1);
+        
+        /**
+         * The channel holding the lock on disk. Closing it releases the lock.
+         */
+        private volatile FileChannel channel;
+    }
+    
+    /**
+     * Class representation of a file held in the store.
+     */
+    public static class Entry {
+        
+        /**
+         * The ID of the project.
+         */
+        private final int projectID;
+        
+        /**
+         * The ID of the file.
+         */
+        private final int fileID;
+        
+        /**
+         * The name of the file.
+         */
+        private final String fileName;
+        
+        /**
+         * The SHA-1 hash of the file contents.
+         */
+        private final String hash;
+        
+        /**
+         * The location of the contents within the store.
+         */
+        private final File file;
+        
+        public Entry(int projectID, int fileID, String fileName, String hash, File file) {
+            
+            this.projectID = projectID;
+            this.fileID = fileID;
+            this.fileName = fileName;
+            this.hash = hash;
+            this.file = file;
+        }
+        
+        /**
+         * Gets the ID of the project.
+         * 
+         * @return The project ID.
+         */
+        public int getProjectID () {
+            
+            return this.projectID;
+        }
+        
+        /**
+         * Gets the ID of the file.
+         * 
+         * @return The file ID.
+         */
+        public int getFileID () {
+            
+            return this.fileID;
+        }
+        
+        /**
+         * Gets the name of the file.
+         * 
+         * @return The file name.
+         */
+        public String getFileName () {
+            
+            return this.fileName;
+        }
+        
+        /**
+         * Gets the SHA-1 hash of the contents.
+         * 
+         * @return The content hash.
+         */
+        public String getHash () {
+            
+            return this.hash;
+        }
+        
+        /**
+         * Gets the location of the contents within the store.
+         * 
+         * @return The stored file.
+         */
+        public File getFile () {
+            
+            return this.file;
+        }
+    }
+}
\ No newline at end of file
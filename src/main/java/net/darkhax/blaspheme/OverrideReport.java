@@ -0,0 +1,174 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A report of the overrides written for a pack.
+ */
+public class OverrideReport {
+    
+    /**
+     * The amount of overrides which were written as new files.
+     */
+    private final int copied;
+    
+    /**
+     * The amount of existing files which were replaced because their contents changed.
+     */
+    private final int updated;
+    
+    /**
+     * The amount of existing files which already had the same contents, or whose override
+     * did not change since the last install.
+     */
+    private final int unchanged;
+    
+    /**
+     * The amount of existing files which were kept, because replacing was not enabled or they
+     * were edited since the last install.
+     */
+    private final int kept;
+    
+    /**
+     * The errors for every override which could not be written.
+     */
+    private final List<IOException> failures;
+    
+    /**
+     * Map of override paths to the hashes of the overrides.
+     */
+    private final Map<String, String> hashes;
+    
+    /**
+     * The time in milliseconds it took to write the overrides.
+     */
+    private final long timeTaken;
+    
+    public OverrideReport(int copied, int updated, int unchanged, int kept, List<IOException> failures, long timeTaken) {
+        
+        this(copied, updated, unchanged, kept, failures, Collections.emptyMap(), timeTaken);
+    }
+    
+    public OverrideReport(int copied, int updated, int unchanged, int kept, List<IOException> failures, Map<String, String> hashes, long timeTaken) {
+        
+        this.copied = copied;
+        this.updated = updated;
+        this.unchanged = unchanged;
+        this.kept = kept;
+        this.failures = Collections.unmodifiableList(new ArrayList<>(failures));
+        this.hashes = Collections.unmodifiableMap(hashes);
+        this.timeTaken = timeTaken;
+    }
+    
+    /**
+     * Gets the amount of overrides which were written as new files.
+     * 
+     * @return The amount of copied files.
+     */
+    public int getCopied () {
+        
+        return this.copied;
+    }
+    
+    /**
+     * Gets the amount of existing files which were replaced because their contents changed.
+     * 
+     * @return The amount of updated files.
+     */
+    public int getUpdated () {
+        
+        return this.updated;
+    }
+    
+    /**
+     * Gets the amount of existing files which already had the same contents, or whose
+     * override did not change since the last install.
+     * 
+     * @return The amount of unchanged files.
+     */
+    public int getUnchanged () {
+        
+        return this.unchanged;
+    }
+    
+    /**
+     * Gets the amount of existing files which were kept, because replacing was not enabled or
+     * they were edited since the last install.
+     * 
+     * @return The amount of kept files.
+     */
+    public int getKept () {
+        
+        return this.kept;
+    }
+    
+    /**
+     * Gets the errors for every override which could not be written.
+     * 
+     * @return An unmodifiable list of errors.
+     */
+    public List<IOException> getFailures () {
+        
+        return this.failures;
+    }
+    
+    /**
+     * Gets the hashes of the overrides, which are recorded in the lock file so the next
+     * update can tell which files were edited.
+     * 
+     * @return An unmodifiable map of override paths to hashes.
+     */
+    public Map<String, String> getHashes () {
+        
+        return this.hashes;
+    }
+    
+    /**
+     * Checks if every override was written or skipped without errors.
+     * 
+     * @return Whether or not there were no failures.
+     */
+    public boolean isSuccessful () {
+        
+        return this.failures.isEmpty();
+    }
+    
+    /**
+     * Throws an exception if any override could not be written. The errors of the failed
+     * overrides are added to the exception as suppressed exceptions.
+     * 
+     * @throws IOException If any override failed.
+     */
+    public void throwIfFailed () throws IOException {
+        
+        if (this.failures.isEmpty())
+            return;
+            
+        final IOException exception = new IOException(this.failures.size() + " overrides could not be written");
+        
+        for (final IOException failure : this.failures)
+            exception.addSuppressed(failure);
+            
+        throw exception;
+    }
+    
+    /**
+     * Gets the time it took to write the overrides.
+     * 
+     * @return The time in milliseconds.
+     */
+    public long getTimeTaken () {
+        
+        return this.timeTaken;
+    }
+    
+    @Override
+    public String toString () {
+        
+        return this.copied + " copied, " + this.updated + " updated, " + this.unchanged + " unchanged, " + this.kept + " kept, " + this.failures.size() + " failed in " + this.timeTaken + "ms";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,420 @@
+package net.darkhax.blaspheme;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+/**
+ * Writes the overrides of a pack into an instance. The overrides are listed once, their
+ * directories are created up front, and the files are then written in parallel. Existing
+ * files are only replaced when replacing is enabled and their contents differ. When the
+ * hashes from the last install are known, a file is only replaced if its override changed
+ * and the user has not edited it. A replacement is written to a temporary file first and moved into place, so a failure never
+ * leaves a half written config behind. Every failure is collected into the report instead of
+ * being ignored.
+ */
+public class OverrideSync {
+    
+    /**
+     * The default amount of threads used to write files.
+     */
+    public static final int DEFAULT_THREADS = 4;
+    
+    /**
+     * Suffix for the temporary file an override is written to before it is moved into place.
+     */
+    private static final String TEMP_SUFFIX = ".blaspheme-tmp";
+    
+    /**
+     * Whether or not existing files with different contents should be replaced.
+     */
+    private final boolean replaceChanged;
+    
+    /**
+     * Map of override paths to the hashes written by the last install, or null if they are
+     * not known.
+     */
+    private final Map<String, String> installed;
+    
+    /**
+     * The amount of threads used to write files.
+     */
+    private final int threads;
+    
+    /**
+     * The bandwidth share files are written with.
+     */
+    private final BandwidthLimiter.Share share = BandwidthLimiter.Share.current();
+    
+    /**
+     * Creates an override sync with the default amount of threads.
+     * 
+     * @param replaceChanged Whether or not existing files with different contents should be
+     *        replaced.
+     */
+    public OverrideSync(boolean replaceChanged) {
+        
+        this(replaceChanged, DEFAULT_THREADS);
+    }
+    
+    /**
+     * Creates an override sync.
+     * 
+     * @param replaceChanged Whether or not existing files with different contents should be
+     *        replaced.
+     * @param threads The amount of threads used to write files.
+     */
+    public OverrideSync(boolean replaceChanged, int threads) {
+        
+        this(replaceChanged, null, threads);
+    }
+    
+    /**
+     * Creates an override sync which updates the overrides of an installed pack, using the
+     * default amount of threads. A file is only replaced if its override changed since the
+     * last install, and the file still has the contents of the old override.
+     * 
+     * @param installed Map of override paths to the hashes written by the last install.
+     */
+    public OverrideSync(Map<String, String> installed) {
+        
+        this(true, installed, DEFAULT_THREADS);
+    }
+    
+    private OverrideSync(boolean replaceChanged, Map<String, String> installed, int threads) {
+        
+        this.replaceChanged = replaceChanged;
+        this.installed = installed;
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * Writes every file in a directory of overrides into an output directory.
+     * 
+     * @param overridesDir The directory holding the overrides.
+     * @param outDir The output directory.
+     * @return A report of the written overrides.
+     */
+    public OverrideReport syncDirectory (File overridesDir, File outDir) throws IOException {
+        
+        final Path root = overridesDir.toPath();
+        final List<OverrideFile> overrides = new ArrayList<>();
+        
+        if (!Files.isDirectory(root))
+            return this.sync(overrides, outDir);
+            
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            
+            @Override
+            public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attributes) {
+                
+                if (!dir.equals(root))
+                    overrides.add(new DiskOverride(root.relativize(dir).toString(), dir.toFile(), true));
+                    
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFile (Path file, BasicFileAttributes attributes) {
+                
+                overrides.add(new DiskOverride(root.relativize(file).toString(), file.toFile(), false));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        
+        return this.sync(overrides, outDir);
+    }
+    
+    /**
+     * Writes overrides into an output directory.
+     * 
+     * @param overrides The overrides to write.
+     * @param outDir The output directory.
+     * @return A report of the written overrides.
+     */
+    public OverrideReport sync (List<? extends OverrideFile> overrides, File outDir) throws IOException {
+        
+        final long startTime = System.currentTimeMillis();
+        final Path outPath = outDir.toPath().toAbsolutePath().normalize();
+        final List<OverrideFile> files = new ArrayList<>();
+        final List<Path> targets = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final Map<String, String> hashes = new ConcurrentHashMap<>();
+        final List<IOException> failures = new ArrayList<>();
+        
+        for (final OverrideFile override : overrides) {
+            
+            final Path target = outPath.resolve(override.getName()).normalize();
+            
+            if (!target.startsWith(outPath) || target.equals(outPath)) {
+                
+                failures.add(new IOException("Override " + override.getName() + " is outside of the output directory"));
+                continue;
+            }
+            
+            if (override.isDirectory())
+                Files.createDirectories(target);
+                
+            else {
+                
+                Files.createDirectories(target.getParent());
+                files.add(override);
+                targets.add(target);
+                names.add(outPath.relativize(target).toString().replace(File.separatorChar, '/'));
+            }
+        }
+        
+        final int[] counts = new int[Outcome.values().length];
+        final List<Future<Outcome>> futures = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, Math.max(1, files.size())), runnable -> {
+            
+            final Thread thread = new Thread(runnable, "Blaspheme Overrides");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        try {
+            
+            for (int index = 0; index < files.size(); index++) {
+                
+                final OverrideFile override = files.get(index);
+                final Path target = targets.get(index);
+                final String name = names.get(index);
+                futures.add(executor.submit( () -> {
+                    
+                    final String hash = override.getHash();
+                    hashes.put(name, hash);
+                    return this.write(override, target, name, hash);
+                }));
+            }
+            
+            for (int index = 0; index < futures.size(); index++) {
+                
+                try {
+                    
+                    counts[futures.get(index).get().ordinal()]++;
+                }
+                
+                catch (final ExecutionException e) {
+                    
+                    final IOException failure = new IOException("Could not write override " + files.get(index).getName(), e.getCause());
+                    Blaspheme.LOGGER.log(Level.WARNING, failure.getMessage(), e.getCause());
+                    failures.add(failure);
+                }
+            }
+        }
+        
+        catch (final InterruptedException e) {
+            
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing overrides");
+        }
+        
+        finally {
+            
+            executor.shutdownNow();
+        }
+        
+        return new OverrideReport(counts[Outcome.COPIED.ordinal()], counts[Outcome.UPDATED.ordinal()], counts[Outcome.UNCHANGED.ordinal()], counts[Outcome.KEPT.ordinal()], failures, new TreeMap<>(hashes), System.currentTimeMillis() - startTime);
+    }
+    
+    /**
+     * Writes a single override, unless the target can be left as it is.
+     * 
+     * @param override The override to write.
+     * @param target The file to write to.
+     * @param name The path of the override, relative to the output directory.
+     * @param hash The hash of the override.
+     * @return What was done with the override.
+     */
+    private Outcome write (OverrideFile override, Path target, String name, String hash) throws IOException {
+        
+        final boolean exists = Files.exists(target);
+        
+        if (exists) {
+            
+            if (!this.replaceChanged)
+                return Outcome.KEPT;
+                
+            if (this.installed != null) {
+                
+                final String previous = this.installed.get(name);
+                
+                // The file was not written by the last install, so it belongs to the user.
+                if (previous == null)
+                    return Outcome.KEPT;
+                    
+                if (previous.equals(hash))
+                    return Outcome.UNCHANGED;
+                    
+                final String current = Hashes.crcFile(target.toFile());
+                
+                if (current.equals(hash))
+                    return Outcome.UNCHANGED;
+                    
+                if (!current.equals(previous)) {
+                    
+                    Blaspheme.LOGGER.log(Level.INFO, "Keeping " + name + ", it was edited since the last install");
+                    return Outcome.KEPT;
+                }
+            }
+            
+            else if (override.isSameContents(target.toFile()))
+                return Outcome.UNCHANGED;
+                
+            Blaspheme.LOGGER.log(Level.FINE, "Updating " + override.getName());
+        }
+        
+        else
+            Blaspheme.LOGGER.log(Level.FINE, "Copying " + override.getName());
+            
+        final Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        
+        try {
+            
+            try (InputStream stream = override.open(); FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                
+                Transfer.copy(stream, new LimitedSink(new FileSink(channel, 0), Blaspheme.getDiskLimiter(), this.share), -1);
+            }
+            
+            try {
+                
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            
+            catch (final AtomicMoveNotSupportedException e) {
+                
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        
+        finally {
+            
+            Files.deleteIfExists(temp);
+        }
+        
+        return exists ? Outcome.UPDATED : Outcome.COPIED;
+    }
+    
+    /**
+     * What was done with a single override.
+     */
+    private enum Outcome {
+        
+        COPIED,
+        UPDATED,
+        UNCHANGED,
+        KEPT
+    }
+    
+    /**
+     * A single file or directory to write into the instance.
+     */
+    public interface OverrideFile {
+        
+        /**
+         * Gets the path of the override, relative to the output directory.
+         * 
+         * @return The relative path.
+         */
+        String getName ();
+        
+        /**
+         * Checks if the override is a directory.
+         * 
+         * @return Whether or not the override is a directory.
+         */
+        boolean isDirectory ();
+        
+        /**
+         * Opens the contents of the override.
+         * 
+         * @return A stream of the contents.
+         */
+        InputStream open () throws IOException;
+        
+        /**
+         * Checks if an existing file already has the contents of the override.
+         * 
+         * @param file The existing file.
+         * @return Whether or not the contents are the same.
+         */
+        boolean isSameContents (File file) throws IOException;
+        
+        /**
+         * Gets the CRC-32 of the contents of the override. This is recorded in the lock file,
+         * so the next update can tell if the override or the installed file changed.
+         * 
+         * @return The checksum as a lower case hex string.
+         */
+        String getHash () throws IOException;
+    }
+    
+    /**
+     * An override read from a file on disk. Contents are compared by size and hash.
+     */
+    private static class DiskOverride implements OverrideFile {
+        
+        private final String name;
+        private final File file;
+        private final boolean directory;
+        
+        public DiskOverride(String name, File file, boolean directory) {
+            
+            this.name = name;
+            this.file = file;
+            this.directory = directory;
+        }
+        
+        @Override
+        public String getName () {
+            
+            return this.name;
+        }
+        
+        @Override
+        public boolean isDirectory () {
+            
+            return this.directory;
+        }
+        
+        @Override
+        public InputStream open () throws IOException {
+            
+            return new FileInputStream(this.file);
+        }
+        
+        @Override
+        public boolean isSameContents (File other) throws IOException {
+            
+            return Blaspheme.isSameContents(this.file, other);
+        }
+        
+        @Override
+        public String getHash () throws IOException {
+            
+            return Hashes.crcFile(this.file);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,209 @@
+package net.darkhax.blaspheme;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A downloaded modpack zip. The manifest is read straight from its zip entry, and overrides
+ * are written from their entries directly to the instance, so the pack is never extracted to
+ * a temporary directory.
+ */
+public class PackArchive implements Closeable {
+    
+    /**
+     * The zip file of the pack.
+     */
+    private final ZipFile zip;
+    
+    public PackArchive(File file) throws IOException {
+        
+        this.zip = new ZipFile(file);
+    }
+    
+    /**
+     * Reads the pack manifest. Manifest must use manifest.json for the entry name.
+     * 
+     * @return The manifest that was read.
+     */
+    public Manifest readManifest () throws IOException {
+        
+        try (ManifestReader reader = this.openManifest()) {
+            
+            return reader.readAll();
+        }
+    }
+    
+    /**
+     * Opens the pack manifest for streaming. Manifest must use manifest.json for the entry
+     * name.
+     * 
+     * @return A reader for the manifest, which must be closed.
+     */
+    public ManifestReader openManifest () throws IOException {
+        
+        final ZipEntry entry = this.zip.getEntry("manifest.json");
+        
+        if (entry == null)
+            throw new IllegalArgumentException("This modpack has no manifest");
+            
+        Blaspheme.LOGGER.log(Level.INFO, "Reading pack manifest");
+        return new ManifestReader(new InputStreamReader(this.zip.getInputStream(entry), StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Writes all of the overrides for the pack into an output directory. Files which already
+     * exist are left alone, unless replacing is enabled and their contents differ from the
+     * override. Contents are compared using the size and CRC stored in the zip, so unchanged
+     * files are not rewritten. Files are written in parallel by an {@link OverrideSync}.
+     * 
+     * @param manifest The manifest for the pack.
+     * @param outDir The output directory.
+     * @param replaceChanged Whether or not existing files with different contents should be
+     *        replaced.
+     * @return A report of the written overrides.
+     * @throws IOException If any override could not be written. Every other override is
+     *         still written first.
+     */
+    public OverrideReport extractOverrides (Manifest manifest, File outDir, boolean replaceChanged) throws IOException {
+        
+        return this.extractOverrides(manifest, outDir, new OverrideSync(replaceChanged));
+    }
+    
+    /**
+     * Updates the overrides of an installed pack. A file is only replaced when the override
+     * changed since the last install, and the file still has the contents of the old
+     * override. Files which were edited since are left alone.
+     * 
+     * @param manifest The manifest for the pack.
+     * @param outDir The output directory.
+     * @param installed The hashes of the overrides written by the last install, from
+     *        {@link InstallLock#overrides}. Null replaces every file with different contents.
+     * @return A report of the written overrides.
+     * @throws IOException If any override could not be written. Every other override is
+     *         still written first.
+     */
+    public OverrideReport updateOverrides (Manifest manifest, File outDir, Map<String, String> installed) throws IOException {
+        
+        return this.extractOverrides(manifest, outDir, installed != null ? new OverrideSync(installed) : new OverrideSync(true));
+    }
+    
+    private OverrideReport extractOverrides (Manifest manifest, File outDir, OverrideSync sync) throws IOException {
+        
+        Blaspheme.LOGGER.log(Level.INFO, "Setting up overrides.");
+        
+        final long startTime = System.nanoTime();
+        final String prefix = manifest.overrides.endsWith("/") ? manifest.overrides : manifest.overrides + "/";
+        final List<EntryOverride> overrides = new ArrayList<>();
+        final Enumeration<? extends ZipEntry> entries = this.zip.entries();
+        
+        while (entries.hasMoreElements()) {
+            
+            final ZipEntry entry = entries.nextElement();
+            
+            if (entry.getName().startsWith(prefix) && entry.getName().length() > prefix.length())
+                overrides.add(new EntryOverride(entry, entry.getName().substring(prefix.length())));
+        }
+        
+        final OverrideReport report = sync.sync(overrides, outDir);
+        
+        Blaspheme.getMetrics().recordTime(InstallMetrics.EXTRACT_TIME, startTime);
+        Blaspheme.LOGGER.log(Level.INFO, "Overides completed! " + report);
+        report.throwIfFailed();
+        return report;
+    }
+    
+    /**
+     * Checks if a file has the same contents as a zip entry, using the size and CRC recorded
+     * for the entry.
+     * 
+     * @param entry The zip entry.
+     * @param file The file to compare.
+     * @return Whether or not the contents are the same.
+     */
+    private static boolean isSameContents (ZipEntry entry, File file) throws IOException {
+        
+        if (entry.getSize() < 0 || entry.getCrc() < 0 || entry.getSize() != file.length())
+            return false;
+            
+        return Hashes.crcFile(file).equals(Hashes.crcToHex(entry.getCrc()));
+    }
+    
+    @Override
+    public void close () throws IOException {
+        
+        this.zip.close();
+    }
+    
+    /**
+     * An override read from an entry in the pack zip. Zip files can be read from several
+     * threads at once, so overrides are written in parallel straight from the zip.
+     */
+    private class EntryOverride implements OverrideSync.OverrideFile {
+        
+        private final ZipEntry entry;
+        private final String name;
+        
+        public EntryOverride(ZipEntry entry, String name) {
+            
+            this.entry = entry;
+            this.name = name;
+        }
+        
+        @Override
+        public String getName () {
+            
+            return this.name;
+        }
+        
+        @Override
+        public boolean isDirectory () {
+            
+            return this.entry.isDirectory();
+        }
+        
+        @Override
+        public InputStream open () throws IOException {
+            
+            return PackArchive.this.zip.getInputStream(this.entry);
+        }
+        
+        @Override
+        public boolean isSameContents (File file) throws IOException {
+            
+            return PackArchive.isSameContents(this.entry, file);
+        }
+        
+        @Override
+        public String getHash () throws IOException {
+            
+            if (this.entry.getCrc() >= 0)
+                return Hashes.crcToHex(this.entry.getCrc());
+                
+            final CRC32 crc = new CRC32();
+            
+            try (InputStream stream = this.open()) {
+                
+                final byte[] buff = new byte[8192];
+                
+                int i;
+                
+                while ((i = stream.read(buff)) > 0)
+                    crc.update(buff, 0, i);
+            }
+            
+            return Hashes.crcToHex(crc.getValue());
+        }
+    }
+}
\ No newline at end of file
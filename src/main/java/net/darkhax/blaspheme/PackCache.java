@@ -0,0 +1,282 @@
+package net.darkhax.blaspheme;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * A persistent cache for pack zips. Cached zips are revalidated with a conditional request
+ * using the ETag and Last-Modified headers of the last download, so checking a pack which has
+ * not changed only costs a single request with no body. A changed zip is read from the body
+ * of that same request, and is written the same way as mods, so it can be split into
+ * segments, limited, cancelled and resumed. The cache is kept under a maximum size by
+ * evicting the zips which were used least recently. Zips which are in use are never evicted.
+ */
+public class PackCache {
+    
+    /**
+     * The default maximum size of the cache, in bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024L * 1024L;
+    
+    /**
+     * The directory that zips are stored in.
+     */
+    private final File cacheDir;
+    
+    /**
+     * The maximum size of the cache, in bytes.
+     */
+    private final long maxSize;
+    
+    /**
+     * Locks for each key, so the same zip is never downloaded twice at once.
+     */
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    
+    /**
+     * The amount of users of each zip which is in use, by file name. Guarded by the cache.
+     */
+    private final Map<String, Integer> users = new HashMap<>();
+    
+    /**
+     * Creates a pack cache with the default size limit.
+     * 
+     * @param cacheDir The directory to store zips in.
+     */
+    public PackCache(File cacheDir) {
+        
+        this(cacheDir, DEFAULT_MAX_SIZE);
+    }
+    
+    /**
+     * Creates a pack cache.
+     * 
+     * @param cacheDir The directory to store zips in.
+     * @param maxSize The maximum size of the cache, in bytes. The newest zip is always kept,
+     *        even if it is larger than this.
+     */
+    public PackCache(File cacheDir, long maxSize) {
+        
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+        
+        if (!cacheDir.exists())
+            cacheDir.mkdirs();
+    }
+    
+    /**
+     * Gets the zip at a URL. If the zip is already cached, it is revalidated with the server
+     * and only downloaded again if it has changed. The zip is not evicted until it is given
+     * back with {@link #release(File)}.
+     * 
+     * @param url The URL of the zip.
+     * @return The cached zip. This should not be modified or deleted.
+     */
+    public File fetch (String url) throws IOException {
+        
+        final String key = Hashes.toHex(Hashes.sha1().digest(url.getBytes(StandardCharsets.UTF_8)));
+        final File zip = new File(this.cacheDir, key + ".zip");
+        final File infoFile = new File(this.cacheDir, key + ".properties");
+        
+        synchronized (this.locks.computeIfAbsent(key, k -> new Object())) {
+            
+            this.retain(zip);
+            
+            try {
+                
+                this.revalidate(url, zip, infoFile, key);
+            }
+            
+            catch (final IOException | RuntimeException e) {
+                
+                this.release(zip);
+                throw e;
+            }
+        }
+        
+        this.prune();
+        return zip;
+    }
+    
+    /**
+     * Gives back a zip from {@link #fetch(String)}, so it can be evicted again.
+     * 
+     * @param zip The zip which is no longer used.
+     */
+    public synchronized void release (File zip) {
+        
+        this.users.computeIfPresent(zip.getName(), (name, count) -> count > 1 ? count - 1 : null);
+    }
+    
+    /**
+     * Marks a zip as in use, so it is not evicted.
+     * 
+     * @param zip The zip which is used.
+     */
+    private synchronized void retain (File zip) {
+        
+        this.users.merge(zip.getName(), 1, Integer::sum);
+    }
+    
+    /**
+     * Revalidates a cached zip, and downloads it again if it is missing or has changed.
+     * 
+     * @param url The URL of the zip.
+     * @param zip The cached zip.
+     * @param infoFile The file holding the validators of the cached zip.
+     * @param key The key of the zip in the cache.
+     */
+    private void revalidate (String url, File zip, File infoFile, String key) throws IOException {
+        
+        final Properties info = new Properties();
+        final Map<String, String> headers = new HashMap<>();
+        
+        if (zip.isFile() && infoFile.isFile()) {
+            
+            try (InputStream stream = new FileInputStream(infoFile)) {
+                
+                info.load(stream);
+            }
+            
+            if (info.getProperty("etag") != null)
+                headers.put("If-None-Match", info.getProperty("etag"));
+            
+            if (info.getProperty("lastModified") != null)
+                headers.put("If-Modified-Since", info.getProperty("lastModified"));
+        }
+        
+        final URL zipUrl = new URL(url);
+        final String etag;
+        final String lastModified;
+        
+        try (HttpTransport.Response response = Blaspheme.send("GET", zipUrl, headers)) {
+            
+            final int status = response.getStatus();
+            
+            if (status == 304 && !headers.isEmpty()) {
+                
+                Blaspheme.LOGGER.log(Level.INFO, "Pack zip for " + url + " has not changed, using the cached copy");
+                zip.setLastModified(System.currentTimeMillis());
+                return;
+            }
+            
+            if (status >= 300)
+                throw HttpStatusException.from(response, zipUrl);
+            
+            etag = response.getHeader("ETag");
+            lastModified = response.getHeader("Last-Modified");
+            
+            Blaspheme.LOGGER.log(Level.INFO, "Downloading pack zip " + url);
+            
+            // The body of the conditional request is the new zip, so it is read straight
+            // away. A retry resumes the .part file left behind with a range request.
+            final File temp = new File(this.cacheDir, key + ".download");
+            
+            try {
+                
+                Blaspheme.downloadFileFromURL(temp, zipUrl, response, null);
+                Files.move(temp.toPath(), zip.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            
+            finally {
+                
+                temp.delete();
+            }
+        }
+        
+        info.clear();
+        info.setProperty("url", url);
+        
+        if (etag != null)
+            info.setProperty("etag", etag);
+        
+        if (lastModified != null)
+            info.setProperty("lastModified", lastModified);
+        
+        try (OutputStream stream = new FileOutputStream(infoFile)) {
+            
+            info.store(stream, "Blaspheme pack cache entry");
+        }
+    }
+    
+    /**
+     * Gets the total size of the cached zips.
+     * 
+     * @return The size of the cache, in bytes.
+     */
+    public long getSize () {
+        
+        final File[] zips = this.cacheDir.listFiles( (dir, name) -> name.endsWith(".zip"));
+        long size = 0;
+        
+        if (zips != null)
+            for (final File zip : zips)
+                size += zip.length();
+        
+        return size;
+    }
+    
+    /**
+     * Removes every zip from the cache, except for the zips which are in use.
+     */
+    public synchronized void clear () {
+        
+        final File[] files = this.cacheDir.listFiles();
+        
+        if (files != null)
+            for (final File file : files)
+                if (!this.users.containsKey(file.getName().replace(".properties", ".zip")))
+                    file.delete();
+    }
+    
+    /**
+     * Evicts the least recently used zips until the cache is within its maximum size. Zips
+     * which are in use are kept.
+     */
+    private synchronized void prune () {
+        
+        final File[] zips = this.cacheDir.listFiles( (dir, name) -> name.endsWith(".zip"));
+        
+        if (zips == null)
+            return;
+        
+        long size = 0;
+        
+        for (final File zip : zips)
+            size += zip.length();
+        
+        Arrays.sort(zips, Comparator.comparingLong(File::lastModified));
+        
+        for (int index = 0; index < zips.length && size > this.maxSize; index++) {
+            
+            final File zip = zips[index];
+            
+            if (this.users.containsKey(zip.getName()))
+                continue;
+            
+            final long length = zip.length();
+            
+            if (zip.delete()) {
+                
+                size -= length;
+                new File(this.cacheDir, zip.getName().replace(".zip", ".properties")).delete();
+                Blaspheme.LOGGER.log(Level.FINE, "Evicted " + zip.getName() + " from the pack cache");
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,98 @@
+package net.darkhax.blaspheme;
+
+import java.io.Closeable;
+import java.io.File;
+
+/**
+ * The zip file of a pack, fetched for an install. The zip either comes from a
+ * {@link PackMirror}, is held in a {@link PackCache} until the install is closed, or was
+ * downloaded to the temp directory and is deleted once the install is closed.
+ */
+public class PackDownload implements Closeable {
+    
+    /**
+     * The file name of the pack, as given by curse.
+     */
+    private final String name;
+    
+    /**
+     * The zip file of the pack.
+     */
+    private final File file;
+    
+    /**
+     * Whether or not the zip is a temporary download, which should be deleted when closed.
+     */
+    private final boolean temporary;
+    
+    /**
+     * The cache holding the zip, which is released when closed. Can be null.
+     */
+    private final PackCache cache;
+    
+    public PackDownload(String name, File file, boolean temporary) {
+        
+        this.name = name;
+        this.file = file;
+        this.temporary = temporary;
+        this.cache = null;
+    }
+    
+    /**
+     * Creates a download for a zip fetched from a pack cache.
+     * 
+     * @param name The file name of the pack.
+     * @param file The zip fetched from the cache.
+     * @param cache The cache the zip is released to when closed.
+     */
+    public PackDownload(String name, File file, PackCache cache) {
+        
+        this.name = name;
+        this.file = file;
+        this.temporary = false;
+        this.cache = cache;
+    }
+    
+    /**
+     * Gets the file name of the pack, as given by curse.
+     * 
+     * @return The name of the pack.
+     */
+    public String getName () {
+        
+        return this.name;
+    }
+    
+    /**
+     * Gets the zip file of the pack.
+     * 
+     * @return The zip file.
+     */
+    public File getFile () {
+        
+        return this.file;
+    }
+    
+    /**
+     * Checks if the zip is a temporary download, which is deleted when closed.
+     * 
+     * @return Whether or not the zip is temporary.
+     */
+    public boolean isTemporary () {
+        
+        return this.temporary;
+    }
+    
+    /**
+     * Deletes the zip if it was a temporary download, or releases it to its cache.
+     */
+    @Override
+    public void close () {
+        
+        if (this.temporary)
+            this.file.delete();
+            
+        else if (this.cache != null)
+            this.cache.release(this.file);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,261 @@
+package net.darkhax.blaspheme;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+
+/**
+ * A local mirror of packs and their mods, for installing without network access. A pack is
+ * exported to the mirror once, with its zip and every mod it uses, and can then be installed
+ * from the mirror at disk speed. Mods are kept in a {@link ModStore} within the mirror, and
+ * files which were missing on curse are remembered so offline installs skip them as well.
+ * 
+ * When the mirror is offline, anything which is not in the mirror fails instead of being
+ * looked up on the network. Otherwise the mirror is checked first, and the network is only
+ * used for packs and mods the mirror does not have.
+ */
+public class PackMirror {
+    
+    /**
+     * The directory holding the pack zips and their index files.
+     */
+    private final File packsDir;
+    
+    /**
+     * The directory holding markers for files which were missing on curse.
+     */
+    private final File missingDir;
+    
+    /**
+     * The directory used while exporting.
+     */
+    private final File tempDir;
+    
+    /**
+     * The store holding the mods of every exported pack.
+     */
+    private final ModStore store;
+    
+    /**
+     * Whether or not the network must never be used.
+     */
+    private final boolean offline;
+    
+    /**
+     * Creates a pack mirror.
+     * 
+     * @param root The root directory of the mirror.
+     * @param offline Whether or not anything missing from the mirror should fail, instead of
+     *        being looked up on the network.
+     */
+    public PackMirror(File root, boolean offline) {
+        
+        this.packsDir = new File(root, "packs");
+        this.missingDir = new File(root, "missing");
+        this.tempDir = new File(root, "temp");
+        this.store = new ModStore(new File(root, "store"));
+        this.offline = offline;
+        
+        this.packsDir.mkdirs();
+        this.missingDir.mkdirs();
+        this.tempDir.mkdirs();
+    }
+    
+    /**
+     * Exports the latest file of a pack to the mirror, along with every mod it uses. Mods which
+     * are already in the mirror are not downloaded again.
+     * 
+     * @param url The URL of the modpack. Must point to curse, or a similar location.
+     * @return The report of the mod downloads.
+     */
+    public DownloadReport export (String url) throws Exception {
+        
+        final String finalUrl = Blaspheme.getLatestFileURL(url);
+        final Matcher matcher = Blaspheme.FILE_NAME_URL_PATTERN.matcher(finalUrl);
+        
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Could not find the latest file for " + url);
+            
+        final String packName = matcher.group(1);
+        final File packZip = new File(this.packsDir, getKey(url) + ".zip");
+        final File download = new File(this.tempDir, packZip.getName());
+        final URL packUrl = new URL(finalUrl);
+        
+        Blaspheme.LOGGER.log(Level.INFO, "Exporting " + packName + " to the mirror");
+        Blaspheme.getRetryPolicy().call(packUrl, null, () -> Blaspheme.downloadFileFromURL(download, packUrl));
+        Files.move(download.toPath(), packZip.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        
+        final Manifest manifest;
+        
+        try (PackArchive archive = new PackArchive(packZip)) {
+            
+            manifest = archive.readManifest();
+        }
+        
+        final DownloadReport report = this.exportFiles(manifest.files);
+        
+        final Properties properties = new Properties();
+        properties.setProperty("url", url);
+        properties.setProperty("fileUrl", finalUrl);
+        properties.setProperty("name", packName);
+        
+        try (OutputStream stream = new FileOutputStream(new File(this.packsDir, getKey(url) + ".properties"))) {
+            
+            properties.store(stream, "Blaspheme mirror pack");
+        }
+        
+        report.throwIfFailed();
+        return report;
+    }
+    
+    /**
+     * Exports mod files to the mirror. Files which were missing on curse are remembered, so
+     * offline installs can skip them.
+     * 
+     * @param files The manifest entries to export.
+     * @return The report of the downloads.
+     */
+    public DownloadReport exportFiles (List<Manifest.FileData> files) throws IOException, InterruptedException {
+        
+        final File stagingDir = new File(this.tempDir, "export-" + System.currentTimeMillis());
+        stagingDir.mkdirs();
+        
+        try (DownloadEngine engine = new DownloadEngine()) {
+            
+            engine.setModStore(this.store);
+            final DownloadReport report = engine.downloadAll(files, stagingDir);
+            
+            for (final DownloadResult result : report.getResults(DownloadResult.Status.MISSING))
+                this.getMissingMarker(result.getFile()).createNewFile();
+                
+            Blaspheme.LOGGER.log(Level.INFO, "Mirror export complete. " + report);
+            return report;
+        }
+        
+        finally {
+            
+            final File[] staged = stagingDir.listFiles();
+            
+            if (staged != null)
+                for (final File file : staged)
+                    file.delete();
+                    
+            stagingDir.delete();
+        }
+    }
+    
+    /**
+     * Gets the zip of a pack from the mirror.
+     * 
+     * @param url The URL the pack was exported from.
+     * @return The pack, or null if it is not in the mirror and the mirror is not offline.
+     * @throws IOException If the pack is not in the mirror and the mirror is offline.
+     */
+    public PackDownload getPack (String url) throws IOException {
+        
+        final File packZip = new File(this.packsDir, getKey(url) + ".zip");
+        final File indexFile = new File(this.packsDir, getKey(url) + ".properties");
+        
+        if (!packZip.isFile() || !indexFile.isFile()) {
+            
+            if (this.offline)
+                throw new IOException("The pack " + url + " is not in the offline mirror");
+                
+            return null;
+        }
+        
+        final Properties properties = new Properties();
+        
+        try (InputStream stream = new FileInputStream(indexFile)) {
+            
+            properties.load(stream);
+        }
+        
+        Blaspheme.LOGGER.log(Level.INFO, "Using " + url + " from the mirror");
+        return new PackDownload(properties.getProperty("name", packZip.getName()), packZip, false);
+    }
+    
+    /**
+     * Installs a mod file from the mirror.
+     * 
+     * @param file The manifest entry to install.
+     * @param modsDir The directory to install the file to.
+     * @return The result of the install, or null if the mirror does not have the file and
+     *         is not offline.
+     * @throws IOException If the file is not in the mirror and the mirror is offline.
+     */
+    public DownloadResult install (Manifest.FileData file, File modsDir) throws IOException {
+        
+        if (this.getMissingMarker(file).isFile()) {
+            
+            Blaspheme.LOGGER.log(Level.WARNING, "Missing file " + file + ", it will be skipped!");
+            return new DownloadResult(file, DownloadResult.Status.MISSING, null, null);
+        }
+        
+        final DownloadResult result = Blaspheme.installStoredFile(this.store, file, modsDir);
+        
+        if (result == null && this.offline)
+            throw new IOException("The mod " + file + " is not in the offline mirror");
+            
+        return result;
+    }
+    
+    /**
+     * Gets the store holding the mods of every exported pack.
+     * 
+     * @return The mirror's mod store.
+     */
+    public ModStore getStore () {
+        
+        return this.store;
+    }
+    
+    /**
+     * Checks if the mirror is offline. An offline mirror never falls back to the network.
+     * 
+     * @return Whether or not the mirror is offline.
+     */
+    public boolean isOffline () {
+        
+        return this.offline;
+    }
+    
+    /**
+     * Gets the marker file for a manifest entry which was missing on curse.
+     * 
+     * @param file The manifest entry.
+     * @return The marker file.
+     */
+    private File getMissingMarker (Manifest.FileData file) {
+        
+        return new File(this.missingDir, file.projectID + "-" + file.fileID);
+    }
+    
+    /**
+     * Gets the name a pack URL is stored under in the mirror.
+     * 
+     * @param url The URL of the pack.
+     * @return A file name for the pack.
+     */
+    private static String getKey (String url) {
+        
+        String key = url.trim().toLowerCase(Locale.ROOT);
+        
+        while (key.endsWith("/"))
+            key = key.substring(0, key.length() - 1);
+            
+        key = key.replaceFirst("^https?://", "");
+        return key.replaceAll("[^a-z0-9._-]", "_");
+    }
+}
\ No newline at end of file
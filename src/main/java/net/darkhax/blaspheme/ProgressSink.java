@@ -0,0 +1,48 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.LongConsumer;
+
+/**
+ * A sink which reports how many bytes pass through it, so progress can be tracked without
+ * reading the file size back from disk.
+ */
+public class ProgressSink implements DownloadSink {
+    
+    /**
+     * The sink the bytes are passed on to.
+     */
+    private final DownloadSink sink;
+    
+    /**
+     * The consumer the amount of written bytes is reported to.
+     */
+    private final LongConsumer progress;
+    
+    public ProgressSink(DownloadSink sink, LongConsumer progress) {
+        
+        this.sink = sink;
+        this.progress = progress;
+    }
+    
+    @Override
+    public void write (ByteBuffer buffer) throws IOException {
+        
+        final int remaining = buffer.remaining();
+        this.sink.write(buffer);
+        this.progress.accept(remaining);
+    }
+    
+    /**
+     * Wraps a sink so its bytes are reported to a consumer.
+     * 
+     * @param sink The sink to wrap.
+     * @param progress The consumer to report to. Can be null.
+     * @return The wrapped sink, or the original sink if there is no consumer.
+     */
+    public static DownloadSink wrap (DownloadSink sink, LongConsumer progress) {
+        
+        return progress == null ? sink : new ProgressSink(sink, progress);
+    }
+}
\ No newline at end of file
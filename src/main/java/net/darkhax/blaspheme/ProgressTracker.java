@@ -0,0 +1,206 @@
+package net.darkhax.blaspheme;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+
+/**
+ * Tracks the progress of a set of downloads and sends it to listeners. Transferred bytes
+ * are only added to a counter on the download threads, and a progress event is sent at most
+ * once per interval by whichever thread notices it is due, so reporting does not slow down
+ * the transfers.
+ */
+class ProgressTracker implements LongConsumer {
+    
+    /**
+     * The weight of the newest sample in the smoothed transfer rate.
+     */
+    private static final double RATE_SMOOTHING = 0.3;
+    
+    /**
+     * The listeners to send events to.
+     */
+    private final List<DownloadListener> listeners;
+    
+    /**
+     * The amount of files which have been queued.
+     */
+    private final AtomicInteger totalFiles = new AtomicInteger();
+    
+    /**
+     * The minimum time between progress events, in nanoseconds.
+     */
+    private final long interval;
+    
+    /**
+     * The time the downloads started, in nanoseconds.
+     */
+    private final long startTime = System.nanoTime();
+    
+    /**
+     * The amount of bytes transferred so far.
+     */
+    private final LongAdder bytes = new LongAdder();
+    
+    /**
+     * The amount of files which have finished.
+     */
+    private final AtomicInteger completed = new AtomicInteger();
+    
+    /**
+     * The amount of files which failed.
+     */
+    private final AtomicInteger failed = new AtomicInteger();
+    
+    /**
+     * The time the next progress event is due, in nanoseconds.
+     */
+    private final AtomicLong nextProgress;
+    
+    /**
+     * The amount of bytes at the last progress event.
+     */
+    private long lastBytes;
+    
+    /**
+     * The time of the last progress event, in nanoseconds.
+     */
+    private long lastTime;
+    
+    /**
+     * The smoothed transfer rate in bytes per second.
+     */
+    private double rate;
+    
+    public ProgressTracker(List<DownloadListener> listeners, long intervalMillis) {
+        
+        this.listeners = listeners;
+        this.interval = intervalMillis * 1000000L;
+        this.lastTime = this.startTime;
+        this.nextProgress = new AtomicLong(this.startTime + this.interval);
+    }
+    
+    /**
+     * Adds transferred bytes to the progress.
+     * 
+     * @param amount The amount of bytes transferred.
+     */
+    @Override
+    public void accept (long amount) {
+        
+        this.bytes.add(amount);
+        this.progressIfDue();
+    }
+    
+    /**
+     * Counts a queued file and sends its queued event.
+     * 
+     * @param file The manifest entry which was queued.
+     */
+    public void queued (Manifest.FileData file) {
+        
+        this.totalFiles.incrementAndGet();
+        this.send(listener -> listener.onQueued(file));
+    }
+    
+    /**
+     * Sends the resolved event for a file.
+     * 
+     * @param file The manifest entry which was resolved.
+     * @param resolved The resolved download location.
+     */
+    public void resolved (Manifest.FileData file, ResolvedFile resolved) {
+        
+        this.send(listener -> listener.onResolved(file, resolved));
+    }
+    
+    /**
+     * Counts a finished file and sends its completed event.
+     * 
+     * @param result The result for the file.
+     */
+    public void completed (DownloadResult result) {
+        
+        this.completed.incrementAndGet();
+        
+        if (result.isFailed())
+            this.failed.incrementAndGet();
+            
+        this.send(listener -> listener.onCompleted(result));
+        this.progressIfDue();
+    }
+    
+    /**
+     * Sends a final progress event, followed by the finished event.
+     * 
+     * @param report The report of all the downloads.
+     */
+    public void finished (DownloadReport report) {
+        
+        this.progress(System.nanoTime());
+        this.send(listener -> listener.onFinished(report));
+    }
+    
+    /**
+     * Sends a progress event if one is due. Only the thread which claims the due time sends
+     * the event, every other thread returns straight away.
+     */
+    private void progressIfDue () {
+        
+        if (this.listeners.isEmpty())
+            return;
+            
+        final long now = System.nanoTime();
+        final long due = this.nextProgress.get();
+        
+        if (now - due >= 0 && this.nextProgress.compareAndSet(due, now + this.interval))
+            this.progress(now);
+    }
+    
+    /**
+     * Takes a snapshot of the progress and sends it to the listeners.
+     * 
+     * @param now The current time in nanoseconds.
+     */
+    private synchronized void progress (long now) {
+        
+        final long total = this.bytes.sum();
+        
+        if (now > this.lastTime) {
+            
+            final double sample = (total - this.lastBytes) * 1e9 / (now - this.lastTime);
+            this.rate = this.lastBytes == 0 ? sample : this.rate + RATE_SMOOTHING * (sample - this.rate);
+        }
+        
+        this.lastBytes = total;
+        this.lastTime = now;
+        
+        final DownloadProgress snapshot = new DownloadProgress(this.totalFiles.get(), this.completed.get(), this.failed.get(), total, (now - this.startTime) / 1000000L, this.rate);
+        this.send(listener -> listener.onProgress(snapshot));
+    }
+    
+    /**
+     * Sends an event to every listener. A listener which throws does not stop the downloads.
+     * 
+     * @param event The event to send.
+     */
+    private void send (Consumer<DownloadListener> event) {
+        
+        for (final DownloadListener listener : this.listeners) {
+            
+            try {
+                
+                event.accept(listener);
+            }
+            
+            catch (final RuntimeException e) {
+                
+                Blaspheme.LOGGER.log(Level.WARNING, "Download listener " + listener + " failed", e);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,308 @@
+package net.darkhax.blaspheme;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * A persistent cache for resolved redirects. Curse project IDs and file IDs almost never
+ * change where they point to, so resolving them once saves several round trips for every mod
+ * on later installs. Entries are held in an in-memory LRU map, which is backed by one small
+ * file per entry on disk.
+ */
+public class RedirectCache {
+    
+    /**
+     * The default time an entry is considered valid for.
+     */
+    public static final long DEFAULT_TTL = TimeUnit.DAYS.toMillis(7);
+    
+    /**
+     * The default maximum amount of entries kept on disk.
+     */
+    public static final int DEFAULT_DISK_ENTRIES = 20000;
+    
+    /**
+     * The default maximum amount of entries kept in memory.
+     */
+    public static final int DEFAULT_MEMORY_ENTRIES = 2048;
+    
+    /**
+     * The directory that entries are stored in.
+     */
+    private final File cacheDir;
+    
+    /**
+     * The time in milliseconds an entry is valid for.
+     */
+    private final long ttl;
+    
+    /**
+     * The maximum amount of entries kept on disk.
+     */
+    private final int maxDiskEntries;
+    
+    /**
+     * The in-memory LRU cache. Access to this must be synchronized on the map.
+     */
+    private final Map<String, CachedLocation> memory;
+    
+    /**
+     * The amount of writes since the disk cache was last pruned.
+     */
+    private final AtomicInteger writes = new AtomicInteger();
+    
+    /**
+     * Creates a redirect cache with the default limits.
+     * 
+     * @param cacheDir The directory to store entries in.
+     */
+    public RedirectCache(File cacheDir) {
+        
+        this(cacheDir, DEFAULT_TTL, DEFAULT_DISK_ENTRIES, DEFAULT_MEMORY_ENTRIES);
+    }
+    
+    /**
+     * Creates a redirect cache.
+     * 
+     * @param cacheDir The directory to store entries in.
+     * @param ttl The time in milliseconds an entry is valid for.
+     * @param maxDiskEntries The maximum amount of entries kept on disk.
+     * @param maxMemoryEntries The maximum amount of entries kept in memory.
+     */
+    public RedirectCache(File cacheDir, long ttl, int maxDiskEntries, int maxMemoryEntries) {
+        
+        this.cacheDir = cacheDir;
+        this.ttl = ttl;
+        this.maxDiskEntries = maxDiskEntries;
+        this.memory = new LinkedHashMap<String, CachedLocation>(16, 0.75f, true) {
+            
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<String, CachedLocation> eldest) {
+                
+                return this.size() > maxMemoryEntries;
+            }
+        };
+        
+        if (!cacheDir.exists())
+            cacheDir.mkdirs();
+        
+        this.prune();
+    }
+    
+    /**
+     * Creates the key for a project redirect.
+     * 
+     * @param projectID The ID of the project.
+     * @return The cache key for the project.
+     */
+    public static String projectKey (int projectID) {
+        
+        return "project-" + projectID;
+    }
+    
+    /**
+     * Creates the key for a file redirect.
+     * 
+     * @param projectID The ID of the project the file belongs to.
+     * @param fileID The ID of the file.
+     * @return The cache key for the file.
+     */
+    public static String fileKey (int projectID, int fileID) {
+        
+        return "file-" + projectID + "-" + fileID;
+    }
+    
+    /**
+     * Creates the key for the size of a file. Sizes are learned from earlier downloads, and
+     * used to start the largest files first.
+     * 
+     * @param projectID The ID of the project the file belongs to.
+     * @param fileID The ID of the file.
+     * @return The cache key for the file size.
+     */
+    public static String sizeKey (int projectID, int fileID) {
+        
+        return "size-" + projectID + "-" + fileID;
+    }
+    
+    /**
+     * Gets a cached location. The in-memory cache is checked first, followed by the disk.
+     * 
+     * @param key The key to look up.
+     * @return The cached location, or null if there is no valid entry.
+     */
+    public String get (String key) {
+        
+        final long now = System.currentTimeMillis();
+        
+        synchronized (this.memory) {
+            
+            final CachedLocation entry = this.memory.get(key);
+            
+            if (entry != null) {
+                
+                if (now - entry.time < this.ttl)
+                    return entry.location;
+                
+                this.memory.remove(key);
+            }
+        }
+        
+        final File file = new File(this.cacheDir, key);
+        
+        if (!file.isFile())
+            return null;
+        
+        final long time = file.lastModified();
+        
+        if (now - time >= this.ttl) {
+            
+            file.delete();
+            return null;
+        }
+        
+        try {
+            
+            final String location = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            
+            synchronized (this.memory) {
+                
+                this.memory.put(key, new CachedLocation(location, time));
+            }
+            
+            return location;
+        }
+        
+        catch (final IOException e) {
+            
+            return null;
+        }
+    }
+    
+    /**
+     * Stores a location in the cache.
+     * 
+     * @param key The key to store the location under.
+     * @param location The location to store.
+     */
+    public void put (String key, String location) {
+        
+        synchronized (this.memory) {
+            
+            this.memory.put(key, new CachedLocation(location, System.currentTimeMillis()));
+        }
+        
+        try {
+            
+            final File file = new File(this.cacheDir, key);
+            final File temp = new File(this.cacheDir, key + "." + Thread.currentThread().getId() + ".tmp");
+            Files.write(temp.toPath(), location.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        
+        catch (final IOException e) {
+            
+            Blaspheme.LOGGER.log(Level.WARNING, "Could not write redirect cache entry " + key, e);
+        }
+        
+        if (this.writes.incrementAndGet() >= Math.max(1, this.maxDiskEntries / 10)) {
+            
+            this.writes.set(0);
+            this.prune();
+        }
+    }
+    
+    /**
+     * Removes an entry from the cache. Used when a cached location turns out to be stale.
+     * 
+     * @param key The key to remove.
+     */
+    public void invalidate (String key) {
+        
+        synchronized (this.memory) {
+            
+            this.memory.remove(key);
+        }
+        
+        new File(this.cacheDir, key).delete();
+    }
+    
+    /**
+     * Removes every entry from the cache.
+     */
+    public void clear () {
+        
+        synchronized (this.memory) {
+            
+            this.memory.clear();
+        }
+        
+        final File[] files = this.cacheDir.listFiles();
+        
+        if (files != null)
+            for (final File file : files)
+                file.delete();
+    }
+    
+    /**
+     * Removes expired entries from the disk, and evicts the oldest entries when there are more
+     * than the maximum.
+     */
+    public void prune () {
+        
+        final File[] files = this.cacheDir.listFiles(File::isFile);
+        
+        if (files == null)
+            return;
+        
+        final long now = System.currentTimeMillis();
+        int remaining = files.length;
+        
+        for (final File file : files)
+            if (now - file.lastModified() >= this.ttl && file.delete())
+                remaining--;
+        
+        if (remaining > this.maxDiskEntries) {
+            
+            final File[] live = this.cacheDir.listFiles(File::isFile);
+            Arrays.sort(live, Comparator.comparingLong(File::lastModified));
+            
+            for (int index = 0; index < live.length - this.maxDiskEntries; index++)
+                live[index].delete();
+        }
+    }
+    
+    /**
+     * A location held in memory, along with the time it was stored.
+     */
+    private static class CachedLocation {
+        
+        /**
+         * The cached location.
+         */
+        private final String location;
+        
+        /**
+         * The time the location was stored.
+         */
+        private final long time;
+        
+        public CachedLocation(String location, long time) {
+            
+            this.location = location;
+            this.time = time;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.regex.Matcher;
+
+/**
+ * The default mod source. This follows the redirects from the project ID to the project page,
+ * and from the file page to the actual file. Known redirects are taken from the redirect
+ * cache, and fresh lookups are written back to it.
+ */
+public class RedirectModSource implements ModSource {
+    
+    /**
+     * The URL project IDs are appended to.
+     */
+    private final String projectUrl;
+    
+    /**
+     * Creates a source which looks up files on curse.
+     */
+    public RedirectModSource() {
+        
+        this(Blaspheme.PROJECT_URL);
+    }
+    
+    /**
+     * Creates a source which looks up files on a curse compatible site.
+     * 
+     * @param projectUrl The URL project IDs are appended to.
+     */
+    public RedirectModSource(String projectUrl) {
+        
+        this.projectUrl = projectUrl;
+    }
+    
+    @Override
+    public ResolvedFile resolve (Manifest.FileData file, boolean useCache) throws IOException, URISyntaxException {
+        
+        final RedirectCache cache = Blaspheme.getRedirectCache();
+        final String fileKey = RedirectCache.fileKey(file.projectID, file.fileID);
+        
+        String finalUrl = cache != null && useCache ? cache.get(fileKey) : null;
+        final boolean cached = finalUrl != null;
+        
+        if (!cached) {
+            
+            final String projectKey = RedirectCache.projectKey(file.projectID);
+            String projectUrl = cache != null && useCache ? cache.get(projectKey) : null;
+            
+            if (projectUrl == null) {
+                
+                projectUrl = Blaspheme.getLocationHeader(this.projectUrl + file.projectID);
+                projectUrl = projectUrl.replaceAll("\\?cookieTest=1", "");
+                
+                if (cache != null)
+                    cache.put(projectKey, projectUrl);
+            }
+            
+            final String fileDlUrl = projectUrl + "/files/" + file.fileID + "/download";
+            finalUrl = Blaspheme.getLocationHeader(fileDlUrl);
+        }
+        
+        final Matcher m = Blaspheme.FILE_NAME_URL_PATTERN.matcher(finalUrl);
+        
+        if (!m.matches())
+            throw new IllegalArgumentException("Mod file doesn't match filename pattern");
+            
+        final String filename = URLDecoder.decode(m.group(1), "UTF-8");
+        final ResolvedFile resolved = new ResolvedFile(file, finalUrl, filename, cached);
+        
+        if (cache != null && !cached && !resolved.isMissing())
+            cache.put(fileKey, finalUrl);
+            
+        return resolved;
+    }
+    
+    @Override
+    public URL getLookupURL (Manifest.FileData file) throws MalformedURLException {
+        
+        return new URL(this.projectUrl + file.projectID);
+    }
+}
\ No newline at end of file
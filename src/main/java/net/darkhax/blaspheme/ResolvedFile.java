@@ -0,0 +1,143 @@
+package net.darkhax.blaspheme;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Class representation of a manifest entry which has had its download location resolved.
+ */
+public class ResolvedFile {
+    
+    /**
+     * The manifest entry that was resolved.
+     */
+    private final Manifest.FileData file;
+    
+    /**
+     * The final download URL for the file.
+     */
+    private final String url;
+    
+    /**
+     * The decoded name of the file.
+     */
+    private final String fileName;
+    
+    /**
+     * Whether or not the URL came from the redirect cache.
+     */
+    private final boolean cached;
+    
+    /**
+     * Whether or not the file no longer exists.
+     */
+    private final boolean missing;
+    
+    /**
+     * The size of the file in bytes, or -1 if it is not known.
+     */
+    private final long size;
+    
+    public ResolvedFile(Manifest.FileData file, String url, String fileName) {
+        
+        this(file, url, fileName, false);
+    }
+    
+    public ResolvedFile(Manifest.FileData file, String url, String fileName, boolean cached) {
+        
+        this(file, url, fileName, cached, fileName.endsWith("cookieTest=1"));
+    }
+    
+    public ResolvedFile(Manifest.FileData file, String url, String fileName, boolean cached, boolean missing) {
+        
+        this(file, url, fileName, cached, missing, -1);
+    }
+    
+    public ResolvedFile(Manifest.FileData file, String url, String fileName, boolean cached, boolean missing, long size) {
+        
+        this.file = file;
+        this.url = url;
+        this.fileName = fileName;
+        this.cached = cached;
+        this.missing = missing;
+        this.size = size;
+    }
+    
+    /**
+     * Gets the manifest entry that was resolved.
+     * 
+     * @return The manifest entry.
+     */
+    public Manifest.FileData getFile () {
+        
+        return this.file;
+    }
+    
+    /**
+     * Gets the final download URL as a string.
+     * 
+     * @return The final download URL.
+     */
+    public String getLocation () {
+        
+        return this.url;
+    }
+    
+    /**
+     * Gets the final download URL.
+     * 
+     * @return The final download URL.
+     */
+    public URL getURL () throws MalformedURLException {
+        
+        return new URL(this.url);
+    }
+    
+    /**
+     * Gets the decoded name of the file.
+     * 
+     * @return The name of the file.
+     */
+    public String getFileName () {
+        
+        return this.fileName;
+    }
+    
+    /**
+     * Checks if the source no longer has this file. Curse redirects missing files back to the
+     * project page with a cookie test.
+     * 
+     * @return Whether or not the file is missing.
+     */
+    public boolean isMissing () {
+        
+        return this.missing;
+    }
+    
+    /**
+     * Gets the size of the file, if the source knows it.
+     * 
+     * @return The size of the file in bytes, or -1 if it is not known.
+     */
+    public long getSize () {
+        
+        return this.size;
+    }
+    
+    /**
+     * Checks if the URL came from the redirect cache rather than a live lookup. Cached URLs may
+     * be stale, and should be resolved again if downloading from them fails.
+     * 
+     * @return Whether or not the URL was cached.
+     */
+    public boolean isCached () {
+        
+        return this.cached;
+    }
+    
+    @Override
+    public String toString () {
+        
+        return this.file + " -> " + this.fileName;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,216 @@
+package net.darkhax.blaspheme;
+
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+
+/**
+ * Retries requests which were rate limited or hit a server error. Each retry waits longer
+ * than the last, with random jitter so parallel downloads do not all retry at once, and
+ * never sooner than the server asked for with Retry-After. When a {@link HostLimiter} is
+ * given, it is told about every success and rate limit, so it can adapt how many requests
+ * are sent to the host at once.
+ */
+public class RetryPolicy {
+    
+    /**
+     * The default amount of attempts for a request.
+     */
+    public static final int DEFAULT_ATTEMPTS = 5;
+    
+    /**
+     * The default delay before the first retry, in milliseconds.
+     */
+    public static final long DEFAULT_BASE_DELAY = 500;
+    
+    /**
+     * The default longest delay between retries, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_DELAY = 30000;
+    
+    /**
+     * The latency reported by the request running on the current thread, in nanoseconds, or
+     * -1 if it has not reported one.
+     */
+    private static final ThreadLocal<long[]> LATENCY = new ThreadLocal<>();
+    
+    /**
+     * The amount of attempts for a request.
+     */
+    private final int attempts;
+    
+    /**
+     * The delay before the first retry, in milliseconds.
+     */
+    private final long baseDelay;
+    
+    /**
+     * The longest delay between retries, in milliseconds.
+     */
+    private final long maxDelay;
+    
+    /**
+     * Creates a retry policy with the default attempts and delays.
+     */
+    public RetryPolicy() {
+        
+        this(DEFAULT_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+    
+    /**
+     * Creates a retry policy.
+     * 
+     * @param attempts The amount of attempts for a request. 1 disables retrying.
+     * @param baseDelay The delay before the first retry, in milliseconds.
+     * @param maxDelay The longest delay between retries, in milliseconds.
+     */
+    public RetryPolicy(int attempts, long baseDelay, long maxDelay) {
+        
+        if (attempts < 1)
+            throw new IllegalArgumentException("A request needs at least one attempt");
+            
+        this.attempts = attempts;
+        this.baseDelay = Math.max(1, baseDelay);
+        this.maxDelay = Math.max(this.baseDelay, maxDelay);
+    }
+    
+    /**
+     * Gets the amount of attempts for a request.
+     * 
+     * @return The amount of attempts.
+     */
+    public int getAttempts () {
+        
+        return this.attempts;
+    }
+    
+    /**
+     * Gets the delay before a retry. The delay doubles with each attempt up to the maximum,
+     * and a random half of it is jittered. A delay asked for by the server is always honored.
+     * 
+     * @param attempt The attempt which failed, starting at 1.
+     * @param retryAfter The delay asked for by the server in milliseconds, or 0.
+     * @return The delay in milliseconds.
+     */
+    public long getDelay (int attempt, long retryAfter) {
+        
+        final long backoff = Math.min(this.maxDelay, this.baseDelay << Math.min(attempt - 1, 20));
+        final long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        return Math.max(retryAfter, jittered);
+    }
+    
+    /**
+     * Runs a request, retrying it when it is rate limited or hits a server error. The host
+     * limiter is given the latency the request reports with {@link #reportLatency(long)}, or -1
+     * if it reports none, rather than how long the whole request took. For downloads that
+     * time mostly depends on the size of the file.
+     * 
+     * @param url The URL being requested, used for the host limiter and logging.
+     * @param limiter The limiter to hold a connection slot from while the request runs, and
+     *        to report the outcome to. Can be null.
+     * @param task The request to run.
+     * @return The result of the request.
+     * @throws InterruptedIOException If the thread is interrupted while waiting.
+     */
+    public <T, E extends Exception> T call (URL url, HostLimiter limiter, Task<T, E> task) throws E, InterruptedIOException {
+        
+        for (int attempt = 1;; attempt++) {
+            
+            final long delay;
+            
+            try {
+                
+                if (limiter != null)
+                    limiter.acquire(url);
+            }
+            
+            catch (final InterruptedException e) {
+                
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + url.getHost());
+            }
+            
+            final HostLimiter previous = HostLimiter.current();
+            final long[] previousLatency = LATENCY.get();
+            final long[] latency = { -1 };
+            
+            try {
+                
+                HostLimiter.setCurrent(limiter);
+                LATENCY.set(latency);
+                final T result = task.run();
+                
+                if (limiter != null)
+                    limiter.onSuccess(url, latency[0]);
+                    
+                return result;
+            }
+            
+            catch (final Exception e) {
+                
+                if (!(e instanceof HttpStatusException) || !((HttpStatusException) e).isRetryable())
+                    throw e;
+                    
+                final long retryAfter = ((HttpStatusException) e).getRetryAfter();
+                Blaspheme.getMetrics().add(InstallMetrics.THROTTLED, 1);
+                
+                if (limiter != null)
+                    limiter.onThrottle(url, retryAfter);
+                    
+                if (attempt >= this.attempts)
+                    throw e;
+                    
+                delay = this.getDelay(attempt, retryAfter);
+                Blaspheme.LOGGER.log(Level.WARNING, e.getMessage() + ", retrying in " + delay + "ms");
+            }
+            
+            finally {
+                
+                HostLimiter.setCurrent(previous);
+                LATENCY.set(previousLatency);
+                
+                if (limiter != null)
+                    limiter.release(url);
+            }
+            
+            try {
+                
+                Thread.sleep(delay);
+            }
+            
+            catch (final InterruptedException e) {
+                
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " + url);
+            }
+        }
+    }
+    
+    /**
+     * Reports how long the request running on the current thread waited for its first
+     * response. Only the first report of each attempt is kept.
+     * 
+     * @param latency The time to the first response, in nanoseconds.
+     */
+    static void reportLatency (long latency) {
+        
+        final long[] sample = LATENCY.get();
+        
+        if (sample != null && sample[0] < 0)
+            sample[0] = latency;
+    }
+    
+    /**
+     * A request which can be retried.
+     */
+    public interface Task<T, E extends Exception> {
+        
+        /**
+         * Runs the request.
+         * 
+         * @return The result of the request.
+         */
+        T run () throws E;
+    }
+}
\ No newline at end of file
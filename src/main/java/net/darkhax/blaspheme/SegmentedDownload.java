@@ -0,0 +1,418 @@
+package net.darkhax.blaspheme;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+
+/**
+ * Downloads a large file over several connections at once. The file is split into byte
+ * ranges, and each range is fetched on its own connection and written straight to its offset
+ * in the file. This is only used when the server advertises support for range requests.
+ */
+public class SegmentedDownload {
+    
+    /**
+     * The most segments which are downloaded on helper threads at once, across all downloads.
+     */
+    private static final int MAX_THREADS = 16;
+    
+    /**
+     * The threads segments are downloaded on. It is shared by every download so the amount of
+     * threads stays bounded, and it never queues work. A segment which can not get a thread
+     * straight away is fetched by the thread which started the download.
+     */
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, MAX_THREADS, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+        
+        final Thread thread = new Thread(runnable, "Blaspheme Segment");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * The URL to download from.
+     */
+    private final URL url;
+    
+    /**
+     * The file to write to.
+     */
+    private final File file;
+    
+    /**
+     * The total length of the file in bytes.
+     */
+    private final long length;
+    
+    /**
+     * The amount of segments to split the file into.
+     */
+    private final int segments;
+    
+    /**
+     * The amount of times each segment is attempted before giving up.
+     */
+    private final int attempts;
+    
+    /**
+     * The consumer transferred bytes are reported to. Can be null.
+     */
+    private final LongConsumer progress;
+    
+    /**
+     * The bandwidth share the segments are downloaded with.
+     */
+    private final BandwidthLimiter.Share share = BandwidthLimiter.Share.current();
+    
+    /**
+     * The install the segments are downloaded for, so cancelling it aborts them.
+     */
+    private final InstallFuture<?> install = InstallFuture.current();
+    
+    /**
+     * The limiter which the request that found the file size holds a slot from. Every other
+     * segment connection takes its own slot from it. Can be null.
+     */
+    private final HostLimiter limiter = HostLimiter.current();
+    
+    public SegmentedDownload(URL url, File file, long length, int segments, int attempts) {
+        
+        this(url, file, length, segments, attempts, null);
+    }
+    
+    public SegmentedDownload(URL url, File file, long length, int segments, int attempts, LongConsumer progress) {
+        
+        this.url = url;
+        this.file = file;
+        this.length = length;
+        this.segments = (int) Math.max(1, Math.min(segments, length));
+        this.attempts = attempts;
+        this.progress = progress;
+    }
+    
+    /**
+     * Downloads the file. The first segment is read from a stream which is already open at
+     * the start of the file, so the request used to discover the file size is not wasted.
+     * The other segments are shared between the calling thread and helper threads. A helper
+     * is only started while the host has a free connection slot and a segment thread is idle,
+     * and the calling thread fetches whatever the helpers do not pick up. It already holds a
+     * slot for the request which found the file size, so it never waits on the host limiter
+     * while helpers are waiting on it.
+     * 
+     * @param firstStream A stream positioned at the start of the file.
+     * @throws IOException If any segment could not be downloaded. The file will be incomplete.
+     */
+    public void download (InputStream firstStream) throws IOException {
+        
+        final long segmentSize = (this.length + this.segments - 1) / this.segments;
+        final Ranges ranges = new Ranges();
+        
+        for (int segment = 1; segment < this.segments; segment++) {
+            
+            final long start = segment * segmentSize;
+            final long end = Math.min(this.length, start + segmentSize) - 1;
+            
+            if (start <= end)
+                ranges.pending.add(new long[] { start, end });
+        }
+        
+        Blaspheme.LOGGER.log(Level.INFO, "Downloading " + this.file.getName() + " in " + this.segments + " segments");
+        
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            
+            this.startHelpers(channel, ranges);
+            
+            try {
+                
+                this.fetchSegment(channel, 0, Math.min(this.length, segmentSize) - 1, firstStream);
+                
+                for (long[] range; (range = ranges.next()) != null;) {
+                    
+                    try {
+                        
+                        this.fetchSegment(channel, range[0], range[1], null);
+                    }
+                    
+                    finally {
+                        
+                        ranges.done();
+                    }
+                }
+                
+                ranges.await();
+            }
+            
+            catch (final IOException e) {
+                
+                // Stops the helpers from starting more segments. Any they are still writing
+                // fail once the channel is closed.
+                ranges.fail(e);
+                throw e;
+            }
+            
+            ranges.check();
+        }
+    }
+    
+    /**
+     * Starts a helper for each remaining segment, for as long as the host has a free
+     * connection slot and a segment thread is idle.
+     * 
+     * @param channel The channel to write to.
+     * @param ranges The segments left to download.
+     */
+    private void startHelpers (FileChannel channel, Ranges ranges) {
+        
+        final int helpers = ranges.pending.size();
+        
+        for (int helper = 0; helper < helpers; helper++) {
+            
+            if (this.limiter != null && !this.limiter.tryAcquire(this.url))
+                return;
+                
+            try {
+                
+                EXECUTOR.execute( () -> this.help(channel, ranges));
+            }
+            
+            catch (final RejectedExecutionException e) {
+                
+                if (this.limiter != null)
+                    this.limiter.release(this.url);
+                    
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Fetches segments on a helper thread until none are left. The helper holds the host
+     * connection slot which was taken when it was started, and releases it once done.
+     * 
+     * @param channel The channel to write to.
+     * @param ranges The segments left to download.
+     */
+    private void help (FileChannel channel, Ranges ranges) {
+        
+        InstallFuture.setCurrent(this.install);
+        
+        try {
+            
+            for (long[] range; (range = ranges.next()) != null;) {
+                
+                try {
+                    
+                    this.fetchSegment(channel, range[0], range[1], null);
+                }
+                
+                catch (final IOException e) {
+                    
+                    ranges.fail(e);
+                }
+                
+                finally {
+                    
+                    ranges.done();
+                }
+            }
+        }
+        
+        finally {
+            
+            InstallFuture.setCurrent(null);
+            
+            if (this.limiter != null)
+                this.limiter.release(this.url);
+        }
+    }
+    
+    /**
+     * Downloads a single segment, resuming from the last written byte if the connection drops.
+     * 
+     * @param channel The channel to write to.
+     * @param start The first byte of the segment.
+     * @param end The last byte of the segment, inclusive.
+     * @param initial A stream already positioned at the start of the segment, or null to open
+     *        a new connection.
+     */
+    private void fetchSegment (FileChannel channel, long start, long end, InputStream initial) throws IOException {
+        
+        final FileSink sink = new FileSink(channel, start);
+        final DownloadSink output = ProgressSink.wrap(LimitedSink.wrapDownload(sink, this.share), this.progress);
+        IOException failure = null;
+        
+        for (int attempt = 1; attempt <= this.attempts && sink.getPosition() <= end; attempt++) {
+            
+            long delay = 0;
+            
+            try (InputStream stream = attempt == 1 && initial != null ? initial : this.openRange(sink.getPosition(), end)) {
+                
+                Transfer.copy(stream, output, end - sink.getPosition() + 1);
+            }
+            
+            catch (final HttpStatusException e) {
+                
+                if (!e.isRetryable())
+                    throw e;
+                    
+                failure = e;
+                Blaspheme.getMetrics().add(InstallMetrics.THROTTLED, 1);
+                
+                if (this.limiter != null)
+                    this.limiter.onThrottle(this.url, e.getRetryAfter());
+                    
+                delay = Blaspheme.getRetryPolicy().getDelay(attempt, e.getRetryAfter());
+            }
+            
+            catch (final IOException e) {
+                
+                failure = e;
+            }
+            
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("Segment download was interrupted");
+                
+            if (delay > 0 && attempt < this.attempts && sink.getPosition() <= end) {
+                
+                try {
+                    
+                    Thread.sleep(delay);
+                }
+                
+                catch (final InterruptedException e) {
+                    
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Segment download was interrupted");
+                }
+            }
+        }
+        
+        if (sink.getPosition() <= end)
+            throw failure != null ? failure : new IOException("Segment ended after " + (sink.getPosition() - start) + " of " + (end - start + 1) + " bytes");
+    }
+    
+    /**
+     * Opens a connection for a range of the file.
+     * 
+     * @param start The first byte of the range.
+     * @param end The last byte of the range, inclusive.
+     * @return A stream of the requested range.
+     */
+    private InputStream openRange (long start, long end) throws IOException {
+        
+        final long startTime = System.nanoTime();
+        final HttpTransport.Response response = Blaspheme.send("GET", this.url, Collections.singletonMap("Range", "bytes=" + start + "-" + end));
+        final int code = response.getStatus();
+        final String range = response.getHeader("Content-Range");
+        
+        if (code >= 400) {
+            
+            final HttpStatusException error = HttpStatusException.from(response, this.url);
+            response.close();
+            throw error;
+        }
+        
+        if (code != 206 || range == null || !range.startsWith("bytes " + start + "-")) {
+            
+            response.close();
+            throw new IOException("Server did not honor range " + start + "-" + end + " (" + code + ")");
+        }
+        
+        if (this.limiter != null)
+            this.limiter.onSuccess(this.url, System.nanoTime() - startTime);
+            
+        return response.getBody();
+    }
+    
+    /**
+     * The segments of a download which have not been started yet, shared between the calling
+     * thread and its helpers.
+     */
+    private static class Ranges {
+        
+        /**
+         * The first and last byte of each segment which has not been started.
+         */
+        private final Queue<long[]> pending = new ArrayDeque<>();
+        
+        /**
+         * The amount of segments currently being fetched.
+         */
+        private int active;
+        
+        /**
+         * The first failure of a segment, which stops new segments from starting.
+         */
+        private IOException failure;
+        
+        /**
+         * Takes the next segment to fetch. Every segment taken must be paired with a call to
+         * {@link #done()}.
+         * 
+         * @return The first and last byte of the segment, or null if none are left.
+         */
+        private synchronized long[] next () {
+            
+            final long[] range = this.failure == null ? this.pending.poll() : null;
+            
+            if (range != null)
+                this.active++;
+                
+            return range;
+        }
+        
+        private synchronized void done () {
+            
+            this.active--;
+            this.notifyAll();
+        }
+        
+        private synchronized void fail (IOException e) {
+            
+            if (this.failure == null)
+                this.failure = e;
+                
+            this.notifyAll();
+        }
+        
+        /**
+         * Waits for the segments being fetched by helpers to finish.
+         */
+        private synchronized void await () throws InterruptedIOException {
+            
+            try {
+                
+                while (this.active > 0 && this.failure == null)
+                    this.wait();
+            }
+            
+            catch (final InterruptedException e) {
+                
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Segmented download was interrupted");
+            }
+        }
+        
+        /**
+         * Throws the failure of a helper, if there was one.
+         */
+        private synchronized void check () throws IOException {
+            
+            if (this.failure != null)
+                throw this.failure;
+        }
+    }
+}
\ No newline at end of file
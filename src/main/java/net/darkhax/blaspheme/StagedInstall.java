@@ -0,0 +1,554 @@
+package net.darkhax.blaspheme;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Builds a new version of an instance in a sibling directory, while the old one keeps
+ * running. The staging directory starts as a mirror of the instance, with most files hard
+ * linked rather than copied, so unchanged mods cost no space or time. Once the install has
+ * been applied to the staging directory and verified, {@link #swap()} switches the instance
+ * over with directory renames, so a server only needs to be down for a restart.
+ * 
+ * Worlds and saves are not staged at all. They are moved from the live instance into the new
+ * version by the swap, and back again by {@link #rollback()}, so they always follow the
+ * version which is live. Moving them only renames their directories, so the swap takes the
+ * same time however much the world changed while the update was staged.
+ * 
+ * A hard link shares its contents with the original, so a file the game rewrites in place
+ * would change in both versions. Configs are written this way, so they are copied instead,
+ * which lets the install merge the pack's configs into them. The backup made by the swap keeps
+ * them as they were at staging, and {@link #rollback()} restores them along with the files
+ * managed by the pack. Any other file the game rewrites in place after the swap is shared with
+ * the backup, and is not restored.
+ * 
+ * Files the running instance changes after staging, such as configs and logs, are carried over
+ * to the staging directory right before the swap, unless the install changed them.
+ */
+public class StagedInstall {
+    
+    /**
+     * Files in the root of an instance which are rewritten in place by an install. These are
+     * copied rather than linked, so writing them never changes the running instance.
+     */
+    private static final Set<String> COPIED_FILES = new HashSet<>(Arrays.asList("instance.cfg", InstallMetrics.FILE_NAME));
+    
+    /**
+     * Directories of an instance which the game writes to in place. Files in them are copied
+     * rather than linked, so the running game never changes the backup kept by a swap.
+     */
+    private static final List<Path> COPIED_DIRS = Arrays.asList(Paths.get("minecraft", "config"));
+    
+    /**
+     * Directories of an instance which hold the game's worlds. These are not staged, and are
+     * moved into whichever version of the instance is live instead.
+     */
+    private static final List<Path> MOVED_DIRS = Arrays.asList(Paths.get("minecraft", "saves"), Paths.get("minecraft", "world"));
+    
+    /**
+     * The directory of the live instance.
+     */
+    private final File instanceDir;
+    
+    /**
+     * The directory the new version of the instance is built in.
+     */
+    private final File stagingDir;
+    
+    /**
+     * The directory the old version of the instance is moved to by the swap.
+     */
+    private final File backupDir;
+    
+    /**
+     * The state of each file when it was mirrored into the staging directory, by its path
+     * relative to the instance.
+     */
+    private final Map<String, String> mirrored = new HashMap<>();
+    
+    /**
+     * The state of each copied file in the live instance when it was copied, by its path
+     * relative to the instance.
+     */
+    private final Map<String, String> copied = new HashMap<>();
+    
+    /**
+     * Creates a staged install for an instance. The staging directory is the instance
+     * directory with a .staging suffix, and the old version is kept with a .previous suffix.
+     * 
+     * @param instanceDir The directory of the live instance. This is the directory which
+     *        contains the minecraft directory.
+     */
+    public StagedInstall(File instanceDir) {
+        
+        final File absolute = instanceDir.getAbsoluteFile();
+        
+        this.instanceDir = absolute;
+        this.stagingDir = new File(absolute.getParentFile(), absolute.getName() + ".staging");
+        this.backupDir = new File(absolute.getParentFile(), absolute.getName() + ".previous");
+    }
+    
+    /**
+     * Gets the directory of the live instance.
+     * 
+     * @return The instance directory.
+     */
+    public File getInstanceDir () {
+        
+        return this.instanceDir;
+    }
+    
+    /**
+     * Gets the directory the new version of the instance is built in.
+     * 
+     * @return The staging directory.
+     */
+    public File getStagingDir () {
+        
+        return this.stagingDir;
+    }
+    
+    /**
+     * Gets the directory the old version of the instance is kept in after a swap.
+     * 
+     * @return The backup directory.
+     */
+    public File getBackupDir () {
+        
+        return this.backupDir;
+    }
+    
+    /**
+     * Creates the staging directory as a mirror of the live instance. Any leftover staging
+     * directory from an earlier attempt is deleted first.
+     * 
+     * @return The staging directory.
+     */
+    public synchronized File stage () throws IOException {
+        
+        this.discard();
+        this.stagingDir.mkdirs();
+        
+        if (!this.instanceDir.isDirectory())
+            return this.stagingDir;
+        
+        final long startTime = System.currentTimeMillis();
+        final Path source = this.instanceDir.toPath();
+        final Path target = this.stagingDir.toPath();
+        
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            
+            @Override
+            public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attributes) throws IOException {
+                
+                if (isMoved(source.relativize(dir)))
+                    return FileVisitResult.SKIP_SUBTREE;
+                    
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFile (Path file, BasicFileAttributes attributes) throws IOException {
+                
+                if (isMoved(source.relativize(file)))
+                    return FileVisitResult.CONTINUE;
+                    
+                final String name = source.relativize(file).toString();
+                final Path staged = target.resolve(name);
+                
+                StagedInstall.this.mirror(file, staged);
+                StagedInstall.this.mirrored.put(name, getState(staged));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        
+        Blaspheme.LOGGER.log(Level.INFO, "Staged " + this.mirrored.size() + " files from " + this.instanceDir + " in " + (System.currentTimeMillis() - startTime) + "ms");
+        return this.stagingDir;
+    }
+    
+    /**
+     * Stages the instance, and updates the staging directory to the latest version of a pack.
+     * Every mod is verified against the new lock file once the update is done. The live
+     * instance is not changed, and the staging directory is discarded if the update fails.
+     * 
+     * @param url The URL of the modpack. Must point to curse, or a similar location.
+     * @param setupMultiMC Should the MultiMC instance file also be updated?
+     * @return The plan which was applied to the staging directory.
+     */
+    public UpdatePlan install (String url, boolean setupMultiMC) throws Exception {
+        
+        this.stage();
+        
+        try {
+            
+            final UpdatePlan plan = Blaspheme.updateModPackFromURL(url, this.stagingDir, setupMultiMC);
+            Blaspheme.verifyInstance(new File(this.stagingDir, "minecraft"));
+            return plan;
+        }
+        
+        catch (final Exception e) {
+            
+            this.discard();
+            throw e;
+        }
+    }
+    
+    /**
+     * Switches the live instance over to the staging directory. Changes the running instance
+     * made since staging are carried over first, and its worlds are moved into the new version.
+     * The old instance is kept in the backup directory, replacing any older backup. The
+     * instance should be stopped before this is called.
+     */
+    public synchronized void swap () throws IOException {
+        
+        if (!this.stagingDir.isDirectory())
+            throw new IllegalStateException("Nothing has been staged for " + this.instanceDir);
+        
+        final long startTime = System.currentTimeMillis();
+        final boolean live = this.instanceDir.exists();
+        
+        if (live)
+            this.carryOver();
+        
+        Blaspheme.deleteRecursively(this.backupDir);
+        
+        if (live) {
+            
+            moveWorlds(this.instanceDir.toPath(), this.stagingDir.toPath());
+            move(this.instanceDir, this.backupDir);
+        }
+        
+        try {
+            
+            move(this.stagingDir, this.instanceDir);
+        }
+        
+        catch (final IOException e) {
+            
+            if (live) {
+                
+                move(this.backupDir, this.instanceDir);
+                moveWorlds(this.stagingDir.toPath(), this.instanceDir.toPath());
+            }
+            
+            throw e;
+        }
+        
+        this.mirrored.clear();
+        this.copied.clear();
+        Blaspheme.LOGGER.log(Level.INFO, "Swapped in the staged instance at " + this.instanceDir + " in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+    
+    /**
+     * Switches the live instance back to the version from before the last swap. The version
+     * which was swapped out is moved to the staging directory. The worlds are moved back along
+     * with the instance, so they keep any progress made since the swap. Configs and the files
+     * managed by the pack are restored as they were before the swap.
+     * 
+     * @return Whether or not there was a backup to restore.
+     */
+    public synchronized boolean rollback () throws IOException {
+        
+        if (!this.backupDir.isDirectory())
+            return false;
+        
+        this.discard();
+        
+        if (this.instanceDir.exists()) {
+            
+            moveWorlds(this.instanceDir.toPath(), this.backupDir.toPath());
+            move(this.instanceDir, this.stagingDir);
+        }
+        
+        move(this.backupDir, this.instanceDir);
+        Blaspheme.LOGGER.log(Level.INFO, "Rolled back " + this.instanceDir + " to the previous version");
+        return true;
+    }
+    
+    /**
+     * Deletes the staging directory. Since unchanged files are links or copies, this does not
+     * affect the live instance.
+     */
+    public synchronized void discard () {
+        
+        Blaspheme.deleteRecursively(this.stagingDir);
+        this.mirrored.clear();
+        this.copied.clear();
+    }
+    
+    /**
+     * Carries files the running instance changed since staging over to the staging directory.
+     * Files which the install changed or removed are left alone. Linked files are linked again,
+     * while copied files are moved rather than copied again, and a changed copied file trades
+     * places with its staged copy, so the backup keeps it as it was at staging. Worlds are left
+     * for the swap to move.
+     */
+    private void carryOver () throws IOException {
+        
+        final Path source = this.instanceDir.toPath();
+        final Path target = this.stagingDir.toPath();
+        final Set<String> seen = new HashSet<>();
+        final int[] carried = new int[1];
+        
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            
+            @Override
+            public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attributes) {
+                
+                return isMoved(source.relativize(dir)) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFile (Path file, BasicFileAttributes attributes) throws IOException {
+                
+                final Path relative = source.relativize(file);
+                
+                if (isMoved(relative))
+                    return FileVisitResult.CONTINUE;
+                    
+                final String name = relative.toString();
+                final Path staged = target.resolve(name);
+                final String state = StagedInstall.this.mirrored.get(name);
+                
+                seen.add(name);
+                
+                // New files are added, unless the install created one at the same path.
+                if (state == null) {
+                    
+                    if (!Files.exists(staged, LinkOption.NOFOLLOW_LINKS)) {
+                        
+                        Files.createDirectories(staged.getParent());
+                        
+                        if (isCopied(relative))
+                            move(file, staged);
+                            
+                        else
+                            StagedInstall.this.mirror(file, staged);
+                            
+                        carried[0]++;
+                    }
+                }
+                
+                // Files the install did not touch are replaced if the live file changed.
+                else if (Files.exists(staged, LinkOption.NOFOLLOW_LINKS) && state.equals(getState(staged)) && StagedInstall.this.isChanged(name, file, staged)) {
+                    
+                    if (StagedInstall.this.copied.containsKey(name))
+                        exchange(file, staged);
+                        
+                    else {
+                        
+                        Files.delete(staged);
+                        StagedInstall.this.mirror(file, staged);
+                    }
+                    
+                    carried[0]++;
+                }
+                
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        
+        // Files the running instance deleted are deleted, unless the install changed them.
+        for (final Map.Entry<String, String> entry : this.mirrored.entrySet()) {
+            
+            final Path staged = target.resolve(entry.getKey());
+            
+            if (!seen.contains(entry.getKey()) && Files.exists(staged, LinkOption.NOFOLLOW_LINKS) && entry.getValue().equals(getState(staged))) {
+                
+                Files.delete(staged);
+                carried[0]++;
+            }
+        }
+        
+        Blaspheme.LOGGER.log(Level.FINE, "Carried over " + carried[0] + " changes from " + this.instanceDir);
+    }
+    
+    /**
+     * Mirrors a file of the live instance into the staging directory. Files are linked, unless
+     * they are rewritten in place by an install or by the game. Symbolic links are recreated
+     * with the same target, rather than hard linking the link itself.
+     * 
+     * @param file The file in the live instance.
+     * @param staged The file in the staging directory.
+     */
+    private void mirror (Path file, Path staged) throws IOException {
+        
+        final Path relative = this.instanceDir.toPath().relativize(file);
+        
+        if (Files.isSymbolicLink(file))
+            Files.createSymbolicLink(staged, Files.readSymbolicLink(file));
+            
+        else if (isCopied(relative)) {
+            
+            Files.copy(file, staged, StandardCopyOption.COPY_ATTRIBUTES);
+            this.copied.put(relative.toString(), getState(file));
+        }
+        
+        else
+            ModStore.linkOrCopy(file.toFile(), staged.toFile());
+    }
+    
+    /**
+     * Checks if a live file has changed since it was mirrored. A linked file has changed when
+     * it was replaced by a new file, a copied file has changed when its state differs from
+     * when it was copied, and a symbolic link has changed when it points somewhere else.
+     * 
+     * @param name The path of the file relative to the instance.
+     * @param file The file in the live instance.
+     * @param staged The file in the staging directory.
+     * @return Whether or not the live file has changed.
+     */
+    private boolean isChanged (String name, Path file, Path staged) throws IOException {
+        
+        if (Files.isSymbolicLink(file) || Files.isSymbolicLink(staged))
+            return !Files.isSymbolicLink(file) || !Files.isSymbolicLink(staged) || !Files.readSymbolicLink(file).equals(Files.readSymbolicLink(staged));
+            
+        final String state = this.copied.get(name);
+        return state != null ? !state.equals(getState(file)) : !Files.isSameFile(file, staged);
+    }
+    
+    /**
+     * Checks if a file of the instance is copied rather than linked.
+     * 
+     * @param relative The path of the file relative to the instance.
+     * @return Whether or not the file is copied.
+     */
+    private static boolean isCopied (Path relative) {
+        
+        if (COPIED_FILES.contains(relative.toString()))
+            return true;
+            
+        for (final Path dir : COPIED_DIRS)
+            if (relative.startsWith(dir))
+                return true;
+                
+        return false;
+    }
+    
+    /**
+     * Checks if a file of the instance is part of a world, which is moved rather than staged.
+     * 
+     * @param relative The path of the file relative to the instance.
+     * @return Whether or not the file is moved.
+     */
+    private static boolean isMoved (Path relative) {
+        
+        for (final Path dir : MOVED_DIRS)
+            if (relative.startsWith(dir))
+                return true;
+                
+        return false;
+    }
+    
+    /**
+     * Moves the worlds of one version of an instance into another. A world directory is
+     * renamed as a whole when the other version has none, and otherwise merged into it. Where
+     * both versions have the same file, the moved one wins, and the other takes its old place.
+     * 
+     * @param source The instance to take the worlds from.
+     * @param target The instance to move the worlds into.
+     */
+    private static void moveWorlds (Path source, Path target) throws IOException {
+        
+        for (final Path dir : MOVED_DIRS)
+            moveInto(source.resolve(dir), target.resolve(dir));
+    }
+    
+    /**
+     * Moves a file or directory to a new location, merging directories which exist in both.
+     * 
+     * @param source The file or directory to move.
+     * @param target The location to move it to.
+     */
+    private static void moveInto (Path source, Path target) throws IOException {
+        
+        if (!Files.exists(source, LinkOption.NOFOLLOW_LINKS))
+            return;
+            
+        if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            
+            Files.createDirectories(target.getParent());
+            move(source, target);
+        }
+        
+        else if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS) && Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+            
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(source)) {
+                
+                for (final Path child : children)
+                    moveInto(child, target.resolve(child.getFileName().toString()));
+            }
+        }
+        
+        else
+            exchange(source, target);
+    }
+    
+    /**
+     * Swaps two files or directories with renames.
+     * 
+     * @param first The first file.
+     * @param second The second file.
+     */
+    private static void exchange (Path first, Path second) throws IOException {
+        
+        final Path temp = second.resolveSibling(second.getFileName() + ".swap");
+        
+        Blaspheme.deleteRecursively(temp.toFile());
+        move(second, temp);
+        move(first, second);
+        move(temp, first);
+    }
+    
+    /**
+     * Gets the state of a file, used to tell if it has changed. This is made up of the identity
+     * of the file on disk where the platform has one, its size and its modification time.
+     * 
+     * @param file The file to check.
+     * @return The state of the file.
+     */
+    private static String getState (Path file) throws IOException {
+        
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        return attributes.fileKey() + "/" + attributes.size() + "/" + attributes.lastModifiedTime().toMillis();
+    }
+    
+    /**
+     * Moves a directory with an atomic rename.
+     * 
+     * @param source The directory to move.
+     * @param target The new location of the directory.
+     */
+    private static void move (File source, File target) throws IOException {
+        
+        move(source.toPath(), target.toPath());
+    }
+    
+    /**
+     * Moves a file or directory with an atomic rename.
+     * 
+     * @param source The file to move.
+     * @param target The new location of the file.
+     */
+    private static void move (Path source, Path target) throws IOException {
+        
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
\ No newline at end of file
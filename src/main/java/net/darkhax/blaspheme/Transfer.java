@@ -0,0 +1,224 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Copies downloaded bytes into a {@link DownloadSink} using pooled direct buffers. Each buffer
+ * is filled as far as possible before it is handed to the sink, so large downloads are
+ * written in a few big writes rather than many small ones. The pool saves allocating a new
+ * buffer for every download, but bytes read from an {@link InputStream} still pass through a
+ * small heap array on the way in. Only a source which is already a channel is read straight
+ * into the direct buffer.
+ */
+public final class Transfer {
+    
+    /**
+     * The default size of the transfer buffers.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 128 * 1024;
+    
+    /**
+     * The maximum amount of idle buffers kept in the pool.
+     */
+    private static final int POOL_SIZE = 32;
+    
+    /**
+     * The idle buffers which can be reused.
+     */
+    private static final BlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+    
+    /**
+     * The current size of the transfer buffers.
+     */
+    private static volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    
+    private Transfer() {
+        
+    }
+    
+    /**
+     * Sets the size of the transfer buffers. Larger buffers mean fewer writes, at the cost of
+     * more memory per active download.
+     * 
+     * @param size The buffer size in bytes.
+     */
+    public static void setBufferSize (int size) {
+        
+        if (size < 1024)
+            throw new IllegalArgumentException("Buffer size must be at least 1024 bytes");
+            
+        bufferSize = size;
+        POOL.clear();
+    }
+    
+    /**
+     * Gets the size of the transfer buffers.
+     * 
+     * @return The buffer size in bytes.
+     */
+    public static int getBufferSize () {
+        
+        return bufferSize;
+    }
+    
+    /**
+     * Copies a stream into a sink. The bytes pass through a small heap array on the way into
+     * the direct buffer. Unlike {@link java.nio.channels.Channels#newChannel(InputStream)},
+     * interrupting the thread does not close the stream, as closing an HTTP stream blocks
+     * until a read in progress returns, which would hang the thread sending the interrupt.
+     * 
+     * @param source The stream to read from.
+     * @param sink The sink to write to.
+     * @param limit The maximum amount of bytes to copy, or -1 to copy until the end of the
+     *        stream.
+     * @return The amount of bytes copied.
+     */
+    public static long copy (InputStream source, DownloadSink sink, long limit) throws IOException {
+        
+        return copy(new StreamChannel(source), sink, limit);
+    }
+    
+    /**
+     * Copies a channel into a sink.
+     * 
+     * @param source The channel to read from.
+     * @param sink The sink to write to.
+     * @param limit The maximum amount of bytes to copy, or -1 to copy until the end of the
+     *        channel.
+     * @return The amount of bytes copied.
+     */
+    public static long copy (ReadableByteChannel source, DownloadSink sink, long limit) throws IOException {
+        
+        final ByteBuffer buffer = acquire();
+        long total = 0;
+        
+        try {
+            
+            boolean end = false;
+            
+            while (!end && (limit < 0 || total < limit)) {
+                
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedIOException("Transfer was interrupted after " + total + " bytes");
+                    
+                buffer.clear();
+                
+                if (limit >= 0)
+                    buffer.limit((int) Math.min(buffer.capacity(), limit - total));
+                    
+                while (buffer.hasRemaining()) {
+                    
+                    if (source.read(buffer) < 0) {
+                        
+                        end = true;
+                        break;
+                    }
+                }
+                
+                buffer.flip();
+                total += buffer.remaining();
+                
+                if (buffer.hasRemaining())
+                    sink.write(buffer);
+            }
+        }
+        
+        finally {
+            
+            release(buffer);
+        }
+        
+        return total;
+    }
+    
+    /**
+     * Takes a buffer from the pool, or creates a new one if the pool is empty.
+     * 
+     * @return A cleared buffer.
+     */
+    private static ByteBuffer acquire () {
+        
+        final int size = bufferSize;
+        final ByteBuffer buffer = POOL.poll();
+        
+        if (buffer != null && buffer.capacity() == size) {
+            
+            buffer.clear();
+            return buffer;
+        }
+        
+        return ByteBuffer.allocateDirect(size);
+    }
+    
+    /**
+     * Returns a buffer to the pool. Buffers of an outdated size are dropped.
+     * 
+     * @param buffer The buffer to return.
+     */
+    private static void release (ByteBuffer buffer) {
+        
+        if (buffer.capacity() == bufferSize)
+            POOL.offer(buffer);
+    }
+    
+    /**
+     * A channel which reads from a stream through a heap array. Closing it closes the stream.
+     */
+    private static class StreamChannel implements ReadableByteChannel {
+        
+        /**
+         * The size of the heap array.
+         */
+        private static final int ARRAY_SIZE = 8192;
+        
+        /**
+         * The stream to read from.
+         */
+        private final InputStream stream;
+        
+        /**
+         * The array bytes are read into before they are put in the buffer.
+         */
+        private final byte[] array = new byte[ARRAY_SIZE];
+        
+        /**
+         * Whether or not the channel is open.
+         */
+        private boolean open = true;
+        
+        public StreamChannel(InputStream stream) {
+            
+            this.stream = stream;
+        }
+        
+        @Override
+        public int read (ByteBuffer buffer) throws IOException {
+            
+            final int read = this.stream.read(this.array, 0, Math.min(buffer.remaining(), ARRAY_SIZE));
+            
+            if (read > 0)
+                buffer.put(this.array, 0, read);
+                
+            return read;
+        }
+        
+        @Override
+        public boolean isOpen () {
+            
+            return this.open;
+        }
+        
+        @Override
+        public void close () throws IOException {
+            
+            this.open = false;
+            this.stream.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+package net.darkhax.blaspheme;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The changes needed to update an installed pack to a new manifest. Files are compared by
+ * their project and file ID, so a mod which changed version shows up as one removed file and
+ * one added file.
+ */
+public class UpdatePlan {
+    
+    /**
+     * Manifest entries which are not installed yet.
+     */
+    private final List<Manifest.FileData> added;
+    
+    /**
+     * Installed files which are no longer in the manifest.
+     */
+    private final List<InstallLock.LockedFile> removed;
+    
+    /**
+     * Installed files which are still in the manifest.
+     */
+    private final List<InstallLock.LockedFile> unchanged;
+    
+    public UpdatePlan(List<Manifest.FileData> added, List<InstallLock.LockedFile> removed, List<InstallLock.LockedFile> unchanged) {
+        
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.unchanged = Collections.unmodifiableList(unchanged);
+    }
+    
+    /**
+     * Creates a plan by comparing an installed pack with a new manifest.
+     * 
+     * @param previous The lock file of the installed pack.
+     * @param manifest The manifest to update to.
+     * @return The plan for the update.
+     */
+    public static UpdatePlan create (InstallLock previous, Manifest manifest) {
+        
+        final List<Manifest.FileData> added = new ArrayList<>();
+        final List<InstallLock.LockedFile> removed = new ArrayList<>();
+        final List<InstallLock.LockedFile> unchanged = new ArrayList<>();
+        final Map<Long, InstallLock.LockedFile> installedFiles = new HashMap<>();
+        final Set<Long> wanted = new HashSet<>();
+        
+        for (final InstallLock.LockedFile installed : previous.files)
+            installedFiles.put(installed.getKey(), installed);
+            
+        for (final Manifest.FileData file : manifest.files) {
+            
+            wanted.add(file.getKey());
+            
+            final InstallLock.LockedFile installed = installedFiles.get(file.getKey());
+            
+            if (installed != null)
+                unchanged.add(installed);
+                
+            else
+                added.add(file);
+        }
+        
+        for (final InstallLock.LockedFile installed : previous.files)
+            if (!wanted.contains(installed.getKey()))
+                removed.add(installed);
+                
+        return new UpdatePlan(added, removed, unchanged);
+    }
+    
+    /**
+     * Gets the manifest entries which need to be downloaded.
+     * 
+     * @return An unmodifiable list of new or changed files.
+     */
+    public List<Manifest.FileData> getAdded () {
+        
+        return this.added;
+    }
+    
+    /**
+     * Gets the installed files which need to be deleted.
+     * 
+     * @return An unmodifiable list of removed or replaced files.
+     */
+    public List<InstallLock.LockedFile> getRemoved () {
+        
+        return this.removed;
+    }
+    
+    /**
+     * Gets the installed files which can be kept as they are.
+     * 
+     * @return An unmodifiable list of unchanged files.
+     */
+    public List<InstallLock.LockedFile> getUnchanged () {
+        
+        return this.unchanged;
+    }
+    
+    /**
+     * Checks if the plan does not change any mod files.
+     * 
+     * @return Whether or not the plan is empty.
+     */
+    public boolean isEmpty () {
+        
+        return this.added.isEmpty() && this.removed.isEmpty();
+    }
+    
+    @Override
+    public String toString () {
+        
+        return this.added.size() + " to download, " + this.removed.size() + " to remove, " + this.unchanged.size() + " unchanged";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,202 @@
+package net.darkhax.blaspheme;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+/**
+ * The default {@link HttpTransport}, built on {@link HttpURLConnection}. Connections are pooled
+ * per host by the keep-alive cache of the JVM, which can be sized with the http.maxConnections
+ * system property. To make that pooling work, every response is either read to the end or
+ * drained when it is closed, so its connection can be handed to the next request. Requests
+ * which would hang are cut off by the connect and read timeouts.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    
+    /**
+     * The default connect timeout in milliseconds.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+    
+    /**
+     * The default read timeout in milliseconds.
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+    
+    /**
+     * The largest unread body which is drained on close. Larger bodies have their connection
+     * closed instead, as reading them would cost more than a new connection.
+     */
+    private static final int DRAIN_LIMIT = 65536;
+    
+    /**
+     * The connect timeout in milliseconds.
+     */
+    private final int connectTimeout;
+    
+    /**
+     * The read timeout in milliseconds.
+     */
+    private final int readTimeout;
+    
+    /**
+     * Creates a transport with the default timeouts.
+     */
+    public UrlConnectionTransport() {
+        
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+    
+    /**
+     * Creates a transport.
+     * 
+     * @param connectTimeout The connect timeout in milliseconds.
+     * @param readTimeout The read timeout in milliseconds.
+     */
+    public UrlConnectionTransport(int connectTimeout, int readTimeout) {
+        
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+    
+    @Override
+    public Response send (String method, URL url, Map<String, String> headers) throws IOException {
+        
+        final URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(this.connectTimeout);
+        connection.setReadTimeout(this.readTimeout);
+        
+        for (final Map.Entry<String, String> header : headers.entrySet())
+            connection.setRequestProperty(header.getKey(), header.getValue());
+            
+        if (connection instanceof HttpURLConnection) {
+            
+            final HttpURLConnection http = (HttpURLConnection) connection;
+            http.setInstanceFollowRedirects(false);
+            http.setRequestMethod(method);
+        }
+        
+        return new ConnectionResponse(connection, "HEAD".equals(method));
+    }
+    
+    /**
+     * A response backed by a URL connection.
+     */
+    private static class ConnectionResponse implements Response {
+        
+        /**
+         * The connection for the response.
+         */
+        private final URLConnection connection;
+        
+        /**
+         * Whether or not the response can have a body.
+         */
+        private final boolean headOnly;
+        
+        /**
+         * The body stream, once it has been requested.
+         */
+        private InputStream body;
+        
+        public ConnectionResponse(URLConnection connection, boolean headOnly) {
+            
+            this.connection = connection;
+            this.headOnly = headOnly;
+        }
+        
+        @Override
+        public int getStatus () throws IOException {
+            
+            return this.connection instanceof HttpURLConnection ? ((HttpURLConnection) this.connection).getResponseCode() : 200;
+        }
+        
+        @Override
+        public String getHeader (String name) {
+            
+            return this.connection.getHeaderField(name);
+        }
+        
+        @Override
+        public long getContentLength () {
+            
+            return this.connection.getContentLengthLong();
+        }
+        
+        @Override
+        public InputStream getBody () throws IOException {
+            
+            if (this.body == null)
+                this.body = this.openBody();
+                
+            return this.body;
+        }
+        
+        /**
+         * Opens the body stream. Error responses have their body read from the error stream.
+         * 
+         * @return The body stream, which may be null for error responses without a body.
+         */
+        private InputStream openBody () throws IOException {
+            
+            if (this.getStatus() >= 400)
+                return ((HttpURLConnection) this.connection).getErrorStream();
+                
+            return this.connection.getInputStream();
+        }
+        
+        /**
+         * Disconnects the connection. A request still waiting for its response is cut off
+         * right away. {@link HttpURLConnection} holds a lock on the body while a read is in
+         * progress, so a read blocked on a stalled body only fails once it returns or hits
+         * the read timeout.
+         */
+        @Override
+        public void abort () throws IOException {
+            
+            if (this.connection instanceof HttpURLConnection)
+                ((HttpURLConnection) this.connection).disconnect();
+                
+            else if (this.body != null)
+                this.body.close();
+        }
+        
+        @Override
+        public void close () throws IOException {
+            
+            if (this.body == null && !this.headOnly) {
+                
+                final long length = this.getContentLength();
+                
+                if (length >= 0 && length <= DRAIN_LIMIT) {
+                    
+                    try (InputStream stream = this.openBody()) {
+                        
+                        if (stream != null) {
+                            
+                            final byte[] buff = new byte[4096];
+                            
+                            while (stream.read(buff) > 0) {
+                                
+                                // Drained so the connection can be reused.
+                            }
+                        }
+                    }
+                    
+                    return;
+                }
+                
+                if (this.connection instanceof HttpURLConnection)
+                    ((HttpURLConnection) this.connection).disconnect();
+                    
+                return;
+            }
+            
+            if (this.body != null)
+                this.body.close();
+        }
+    }
+}
\ No newline at end of file
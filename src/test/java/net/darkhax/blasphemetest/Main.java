@@ -1,28 +1,46 @@
 package net.darkhax.blasphemetest;
 
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Toolkit;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Handler;
 import java.util.logging.LogRecord;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.text.DefaultCaret;
 
 import net.darkhax.blaspheme.Blaspheme;
+import net.darkhax.blaspheme.DownloadListener;
+import net.darkhax.blaspheme.DownloadProgress;
+import net.darkhax.blaspheme.InstallFuture;
 
 // This is just a basic GUI to test the lib. I suck at GUIs, so
 // any feedback would be very appreciated. 
 public class Main extends JFrame {
     
     private static final long serialVersionUID = 1L;
-    private static boolean downloading = false;
+    
+    // Installs run one at a time on a daemon thread, so closing the window exits.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        
+        final Thread thread = new Thread(runnable, "Blaspheme Install");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private InstallFuture<Void> install;
     
     public static void main (String[] args) {
         
@@ -35,7 +53,7 @@ public class Main extends JFrame {
                 final JFrame frame = new Main();
                 frame.pack();
                 frame.setVisible(true);
-                frame.setSize(690, 240);
+                frame.setSize(690, 280);
                 frame.setResizable(false);
                 frame.setLocationRelativeTo(null);
                 frame.setTitle("Blaspheme Pack Downloader");
@@ -60,35 +78,21 @@ public class Main extends JFrame {
         final JButton button = new JButton("Download Pack");
         button.addActionListener(e -> {
             
-            if (!downloading) {
-                
-                downloading = true;
+            if (this.install != null && !this.install.isDone()) {
                 
-                try {
-                    
-                    new Thread() {
-                        @Override
-                        public void run () {
-                            
-                            try {
-                                Blaspheme.downloadModPackFromURL(modpackField.getText(), false);
-                            }
-                            catch (final Exception e) {
-                                
-                                e.printStackTrace();
-                            }
-                            downloading = false;
-                        }
-                    }.start();
-                    
-                }
+                this.install.cancel(true);
+                return;
+            }
+            
+            button.setText("Cancel");
+            this.install = Blaspheme.downloadModPackAsync(modpackField.getText(), false, this.executor);
+            this.install.whenComplete( (result, error) -> {
                 
-                catch (final Exception e1) {
+                if (error != null && !(error instanceof CancellationException))
+                    error.printStackTrace();
                     
-                    e1.printStackTrace();
-                    downloading = false;
-                }
-            }
+                SwingUtilities.invokeLater( () -> button.setText("Download Pack"));
+            });
         });
         this.add(button);
         
@@ -102,6 +106,40 @@ public class Main extends JFrame {
         
         Blaspheme.LOGGER.addHandler(new LogHandler(logArea));
         this.add(scrollPane);
+        
+        final JProgressBar progressBar = new JProgressBar(0, 1000);
+        progressBar.setPreferredSize(new Dimension(660, 20));
+        progressBar.setStringPainted(true);
+        this.add(progressBar);
+        
+        final JLabel statusLabel = new JLabel(" ");
+        statusLabel.setPreferredSize(new Dimension(660, 20));
+        this.add(statusLabel);
+        
+        Blaspheme.addDownloadListener(new ProgressHandler(progressBar, statusLabel));
+    }
+    
+    private static class ProgressHandler implements DownloadListener {
+        
+        private final JProgressBar bar;
+        private final JLabel label;
+        
+        public ProgressHandler(JProgressBar bar, JLabel label) {
+            
+            this.bar = bar;
+            this.label = label;
+        }
+        
+        @Override
+        public void onProgress (DownloadProgress progress) {
+            
+            SwingUtilities.invokeLater( () -> {
+                
+                this.bar.setValue((int) (progress.getFraction() * 1000));
+                this.bar.setString(progress.getCompletedFiles() + " / " + progress.getTotalFiles() + " files");
+                this.label.setText(progress.toString());
+            });
+        }
     }
     
     private static class LogHandler extends Handler {
@@ -116,7 +154,7 @@ public class Main extends JFrame {
         @Override
         public void publish (LogRecord record) {
             
-            this.area.append(record.getMessage() + "\n");
+            SwingUtilities.invokeLater( () -> this.area.append(record.getMessage() + "\n"));
         }
         
         @Override
@@ -0,0 +1,99 @@
+package net.darkhax.blasphemetest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import com.sun.net.httpserver.HttpServer;
+
+import net.darkhax.blaspheme.FileSink;
+import net.darkhax.blaspheme.Transfer;
+
+// Compares the old 4 KB byte[] copy loop with the pooled buffer transfer path. Files are
+// served from memory by a local HTTP server, so the numbers show copy overhead rather than
+// network speed. Usage: TransferBenchmark [sizeMB] [rounds] [bufferKB]
+public class TransferBenchmark {
+    
+    public static void main (String[] args) throws Exception {
+        
+        final int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        
+        if (args.length > 2)
+            Transfer.setBufferSize(Integer.parseInt(args[2]) * 1024);
+            
+        final byte[] data = new byte[sizeMB * 1024 * 1024];
+        new Random(0).nextBytes(data);
+        
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/file.bin", exchange -> {
+            
+            exchange.sendResponseHeaders(200, data.length);
+            
+            try (OutputStream stream = exchange.getResponseBody()) {
+                
+                stream.write(data);
+            }
+        });
+        server.start();
+        
+        final URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/file.bin");
+        final File target = File.createTempFile("blaspheme", ".bin");
+        target.deleteOnExit();
+        
+        try {
+            
+            for (int round = 0; round < rounds; round++) {
+                
+                final double legacy = time(sizeMB, () -> copyLegacy(url, target));
+                final double pooled = time(sizeMB, () -> copyPooled(url, target));
+                System.out.printf("Round %d: byte[4096] %.1f MB/s, pooled %d KB %.1f MB/s%n", round + 1, legacy, Transfer.getBufferSize() / 1024, pooled);
+            }
+        }
+        
+        finally {
+            
+            server.stop(0);
+        }
+    }
+    
+    private static double time (int sizeMB, Task task) throws IOException {
+        
+        final long start = System.nanoTime();
+        task.run();
+        return sizeMB / ((System.nanoTime() - start) / 1e9);
+    }
+    
+    private static void copyLegacy (URL url, File file) throws IOException {
+        
+        try (InputStream instream = url.openStream(); FileOutputStream outStream = new FileOutputStream(file)) {
+            
+            final byte[] buff = new byte[4096];
+            
+            int i;
+            
+            while ((i = instream.read(buff)) > 0)
+                outStream.write(buff, 0, i);
+        }
+    }
+    
+    private static void copyPooled (URL url, File file) throws IOException {
+        
+        try (InputStream instream = url.openStream(); FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            
+            Transfer.copy(instream, new FileSink(channel, 0), -1);
+        }
+    }
+    
+    private interface Task {
+        
+        void run () throws IOException;
+    }
+}
\ No newline at end of file